@@ -0,0 +1,62 @@
+package com.upgrade.jurassicpark.benchmark;
+
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.service.ReservationService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Availability of ranges inside and beyond the in-memory horizon, with the calendar cache hit on every call and
+ * missed on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CalendarBenchmark {
+
+    // Distinct start days cycled through, more than the calendar cache holds
+    private static final int START_DAYS = 512;
+
+    @Param({"7", "30", "180"})
+    private int rangeDays;
+
+    @Param({"0", "1000", "10000"})
+    private int reservations;
+
+    private ConfigurableApplicationContext context;
+
+    private ReservationService reservationService;
+
+    private LocalDateTime from;
+
+    private int nextStartDay;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = Park.start();
+        Park.seed(context, reservations);
+
+        reservationService = context.getBean(ReservationService.class);
+        from = LocalDateTime.now();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Calendar cached() {
+        return reservationService.getReservationCalendar(from, from.plusDays(rangeDays));
+    }
+
+    @Benchmark
+    public Calendar uncached() {
+        LocalDateTime start = from.plusDays(nextStartDay++ % START_DAYS);
+
+        return reservationService.getReservationCalendar(start, start.plusDays(rangeDays));
+    }
+}
@@ -0,0 +1,49 @@
+package com.upgrade.jurassicpark.benchmark;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.service.ReservationService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of random existing tokens, with the token cache disabled and with room for every reservation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FindByTokenBenchmark {
+
+    @Param({"1000", "10000"})
+    private int reservations;
+
+    @Param({"0", "10000"})
+    private int tokenCacheSize;
+
+    private ConfigurableApplicationContext context;
+
+    private ReservationService reservationService;
+
+    private List<String> tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = Park.start("jurassic-world.token-cache-size=" + tokenCacheSize);
+        tokens = Park.seed(context, reservations);
+
+        reservationService = context.getBean(ReservationService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Reservation findByToken() {
+        return reservationService.findByToken(tokens.get(ThreadLocalRandom.current().nextInt(tokens.size())));
+    }
+}
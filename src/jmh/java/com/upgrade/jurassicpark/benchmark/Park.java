@@ -0,0 +1,81 @@
+package com.upgrade.jurassicpark.benchmark;
+
+import com.upgrade.jurassicpark.JurassicparkApplication;
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import com.upgrade.jurassicpark.service.BookingWindow;
+import com.upgrade.jurassicpark.service.DayCapacityLedger;
+import com.upgrade.jurassicpark.service.OccupancyIndex;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Starts the application without the web layer on a database of its own, so every benchmark trial begins from an
+ * empty park.
+ */
+final class Park {
+
+    private Park() {
+    }
+
+    /**
+     * Properties are passed as command line arguments, so they take precedence over application.yml.
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        String[] defaults = {
+                "spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "spring.h2.console.enabled=false",
+                "logging.level.root=WARN",
+                "logging.level.org.springframework=WARN",
+                "logging.level.org.hibernate.SQL=WARN"
+        };
+
+        return new SpringApplicationBuilder(JurassicparkApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run(Stream.concat(Stream.of(defaults), Stream.of(properties)).map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    /**
+     * Inserts active reservations spread over the next year straight through the repository, counts them into the
+     * day_capacity table and reloads the occupancy index, returning their tokens.
+     */
+    static List<String> seed(ConfigurableApplicationContext context, int reservations) {
+        List<Reservation> seeded = new ArrayList<>();
+
+        LocalDate firstArrival = BookingWindow.firstArrival(LocalDate.now());
+
+        for (int i = 0; i < reservations; i++) {
+            LocalDate arrival = firstArrival.plusDays(i % 360);
+
+            Reservation reservation = reservation(arrival, arrival.plusDays(2));
+            reservation.setToken(UUID.randomUUID().toString());
+            reservation.setReservationStatus(ReservationStatus.ACTIVE);
+            seeded.add(reservation);
+        }
+
+        context.getBean(ReservationRepository.class).saveAll(seeded);
+        context.getBean(DayCapacityLedger.class).reconcile(LocalDate.now(), firstArrival.plusDays(362));
+        context.getBean(OccupancyIndex.class).load();
+
+        return seeded.stream().map(Reservation::getToken).collect(Collectors.toList());
+    }
+
+    static Reservation reservation(LocalDate arrival, LocalDate departure) {
+        Reservation reservation = new Reservation();
+        reservation.setName("Benchmark Guest");
+        reservation.setEmail("guest@jurassicpark.com");
+        reservation.setArrivalDate(arrival.atStartOfDay());
+        reservation.setDepartureDate(departure.atStartOfDay());
+        return reservation;
+    }
+}
@@ -0,0 +1,95 @@
+package com.upgrade.jurassicpark.benchmark;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.service.BookingWindow;
+import com.upgrade.jurassicpark.service.ReservationService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bookings under contention, with every thread booking the same days or each thread booking days of its own.
+ * Capacity is set high enough that no booking is rejected, so only the cost of deciding and persisting is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SaveBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Bookings {
+
+        @Param({"locking", "lock-free", "database", "sequencer"})
+        private String bookingMode;
+
+        @Param({"overlapping", "disjoint"})
+        private String dates;
+
+        private ConfigurableApplicationContext context;
+
+        private ReservationService reservationService;
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            context = Park.start(
+                    "jurassic-world.booking-mode=" + bookingMode,
+                    "jurassic-world.max-reservations-per-day=1000000");
+
+            reservationService = context.getBean(ReservationService.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stay {
+
+        private LocalDate arrival;
+
+        @Setup(Level.Trial)
+        public void setUp(Bookings bookings) {
+            int offset = "disjoint".equals(bookings.dates) ? bookings.threads.getAndIncrement() : 0;
+            LocalDate firstArrival = BookingWindow.firstArrival(LocalDate.now());
+            long bookableDays = ChronoUnit.DAYS.between(firstArrival, BookingWindow.lastArrival(LocalDate.now()));
+
+            // Past 8 threads some stays share days again, there are not enough bookable days to keep them apart
+            arrival = firstArrival.plusDays((offset * 3) % bookableDays);
+        }
+
+        Reservation next() {
+            return Park.reservation(arrival, arrival.plusDays(2));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Reservation save1(Bookings bookings, Stay stay) throws Exception {
+        return bookings.reservationService.save(stay.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Reservation save4(Bookings bookings, Stay stay) throws Exception {
+        return bookings.reservationService.save(stay.next());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Reservation save16(Bookings bookings, Stay stay) throws Exception {
+        return bookings.reservationService.save(stay.next());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Reservation save64(Bookings bookings, Stay stay) throws Exception {
+        return bookings.reservationService.save(stay.next());
+    }
+}
@@ -0,0 +1,54 @@
+package com.upgrade.jurassicpark.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of availability responses, with the object mapper configured as Spring Boot configures it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"1", "31", "365"})
+    private int days;
+
+    private ObjectMapper objectMapper;
+
+    private Calendar calendar;
+
+    private Day day;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+
+        int[] reservationsMade = new int[days];
+
+        for (int i = 0; i < days; i++) {
+            reservationsMade[i] = i % 31;
+        }
+
+        calendar = new Calendar(LocalDate.now(), reservationsMade, 30);
+        day = calendar.getDays().get(0);
+    }
+
+    @Benchmark
+    public byte[] calendar() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(calendar);
+    }
+
+    @Benchmark
+    public byte[] day() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(day);
+    }
+}
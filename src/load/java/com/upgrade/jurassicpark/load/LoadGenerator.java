@@ -0,0 +1,298 @@
+package com.upgrade.jurassicpark.load;
+
+import com.upgrade.jurassicpark.JurassicparkApplication;
+import com.upgrade.jurassicpark.exception.MaxReservationsPerDayExceededException;
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import com.upgrade.jurassicpark.service.BookingWindow;
+import com.upgrade.jurassicpark.service.OccupancyIndex;
+import com.upgrade.jurassicpark.service.ReservationService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Drives a mix of availability reads, bookings, updates and cancellations against the reservation service of a
+ * running application context at a fixed request rate, then reports throughput and latency percentiles per
+ * operation and checks that no day was booked beyond its capacity.
+ *
+ * Requests are scheduled ahead of time, one every 1/rate seconds, and their latency is measured from the time they
+ * were scheduled for. A stalled service therefore shows up in the percentiles instead of just slowing the load down.
+ *
+ * Options: --rate (requests per second, default 200), --duration (seconds, default 30), --threads (default 32) and
+ * --mix (default read:60,book:25,update:10,cancel:5). Any other --property is handed to the application, for
+ * instance --jurassic-world.booking-mode=lock-free.
+ */
+public class LoadGenerator {
+
+    enum Operation {
+        READ, BOOK, UPDATE, CANCEL
+    }
+
+    private static final int CHECKED_DAYS = 64;
+
+    private final ReservationService reservationService;
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, LongAdder> rejections = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+
+    private final List<String> tokens = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong tickets = new AtomicLong();
+
+    private volatile Exception firstFailure;
+
+    LoadGenerator(ReservationService reservationService) {
+        this.reservationService = reservationService;
+
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(3));
+            rejections.put(operation, new LongAdder());
+            failures.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Arrays.stream(args)
+                .filter(arg -> arg.startsWith("--") && arg.contains("="))
+                .collect(Collectors.toMap(arg -> arg.substring(2, arg.indexOf('=')), arg -> arg.substring(arg.indexOf('=') + 1)));
+
+        int rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "32"));
+        Operation[] mix = parseMix(options.getOrDefault("mix", "read:60,book:25,update:10,cancel:5"));
+
+        String[] applicationArgs = Stream.concat(
+                Stream.of("--spring.datasource.url=jdbc:h2:mem:load-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                        "--spring.h2.console.enabled=false",
+                        "--logging.level.root=WARN",
+                        "--logging.level.org.springframework=WARN",
+                        "--logging.level.org.hibernate.SQL=WARN"),
+                Arrays.stream(args).filter(arg -> !arg.matches("--(rate|duration|threads|mix)=.*")))
+                .toArray(String[]::new);
+
+        boolean passed;
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(JurassicparkApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run(applicationArgs)) {
+
+            LoadGenerator loadGenerator = new LoadGenerator(context.getBean(ReservationService.class));
+
+            long elapsed = loadGenerator.run(rate, duration, threads, mix);
+            loadGenerator.report(elapsed);
+
+            passed = verify(context);
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs the load and returns how long it took in nanoseconds.
+     */
+    long run(int rate, int durationSeconds, int threads, Operation[] mix) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        for (int i = 0; i < threads; i++) {
+            executorService.execute(() -> {
+                for (long scheduledAt = start + tickets.getAndIncrement() * interval; scheduledAt < end;
+                     scheduledAt = start + tickets.getAndIncrement() * interval) {
+
+                    LockSupport.parkNanos(scheduledAt - System.nanoTime());
+
+                    Operation operation = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+
+                    execute(operation);
+
+                    latencies.get(operation).recordValue(System.nanoTime() - scheduledAt);
+                }
+            });
+        }
+
+        executorService.shutdown();
+        executorService.awaitTermination(durationSeconds + 600L, TimeUnit.SECONDS);
+
+        return System.nanoTime() - start;
+    }
+
+    private void execute(Operation operation) {
+        try {
+            switch (operation) {
+                case READ:
+                    reservationService.getReservationCalendar(LocalDateTime.now(), LocalDateTime.now().plusMonths(1));
+                    break;
+                case BOOK:
+                    tokens.add(reservationService.save(randomStay(new Reservation())).getToken());
+                    break;
+                case UPDATE:
+                    Reservation updated = randomReservation();
+
+                    if (updated != null) {
+                        reservationService.modify(randomStay(updated));
+                    }
+                    break;
+                case CANCEL:
+                    Reservation cancelled = randomReservation();
+
+                    if (cancelled != null && ReservationStatus.ACTIVE.equals(cancelled.getReservationStatus())) {
+                        reservationService.cancelReservation(cancelled);
+                    }
+                    break;
+            }
+        } catch (MaxReservationsPerDayExceededException e) {
+            rejections.get(operation).increment();
+        } catch (Exception e) {
+            failures.get(operation).increment();
+
+            if (firstFailure == null) {
+                firstFailure = e;
+            }
+        }
+    }
+
+    private Reservation randomReservation() {
+        return tokens.isEmpty() ? null : reservationService.findByToken(tokens.get(ThreadLocalRandom.current().nextInt(tokens.size())));
+    }
+
+    private static Reservation randomStay(Reservation reservation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDate firstArrival = BookingWindow.firstArrival(LocalDate.now());
+        LocalDate arrival = firstArrival.plusDays(random.nextLong(
+                ChronoUnit.DAYS.between(firstArrival, BookingWindow.lastArrival(LocalDate.now())) + 1));
+
+        reservation.setName("Load Guest");
+        reservation.setEmail("load@jurassicpark.com");
+        reservation.setArrivalDate(arrival.atStartOfDay());
+        reservation.setDepartureDate(arrival.plusDays(random.nextInt(3)).atStartOfDay());
+        return reservation;
+    }
+
+    void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = latencies.values().stream().mapToLong(Histogram::getTotalCount).sum();
+
+        System.out.printf("%nCompleted %d requests in %.1f s, %.1f requests/s%n%n", total, seconds, total / seconds);
+        System.out.printf("%-8s %9s %9s %9s %10s %10s %10s %10s%n", "", "requests", "rejected", "failed", "p50 ms", "p99 ms", "p999 ms", "max ms");
+
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies.get(operation);
+
+            System.out.printf("%-8s %9d %9d %9d %10.2f %10.2f %10.2f %10.2f%n",
+                    operation.name().toLowerCase(),
+                    histogram.getTotalCount(),
+                    rejections.get(operation).sum(),
+                    failures.get(operation).sum(),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        if (firstFailure != null) {
+            System.out.println();
+            System.out.println("First failure:");
+            firstFailure.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Checks the active reservations in the database against the capacity of every day, and both the day_capacity
+     * table and the in-memory occupancy index against them.
+     */
+    static boolean verify(ConfigurableApplicationContext context) {
+        int maxReservationsPerDay = context.getEnvironment().getRequiredProperty("jurassic-world.max-reservations-per-day", Integer.class);
+
+        LocalDate from = LocalDate.now();
+        LocalDate to = from.plusDays(CHECKED_DAYS - 1);
+
+        int[] booked = context.getBean(ReservationRepository.class).countActiveReservationsPerDay(from, to);
+        int[] materialized = context.getBean(DayCapacityRepository.class).bookedPerDay(from, to);
+        int[] indexed = context.getBean(OccupancyIndex.class).reservationsBetween(from, to);
+
+        List<String> problems = new ArrayList<>();
+
+        for (int i = 0; i < booked.length; i++) {
+            if (booked[i] > maxReservationsPerDay) {
+                problems.add(from.plusDays(i) + " has " + booked[i] + " active reservations, capacity is " + maxReservationsPerDay);
+            }
+
+            if (booked[i] != materialized[i]) {
+                problems.add(from.plusDays(i) + " has " + booked[i] + " active reservations, day_capacity counts " + materialized[i]);
+            }
+
+            if (booked[i] != indexed[i]) {
+                problems.add(from.plusDays(i) + " has " + booked[i] + " active reservations, the occupancy index counts " + indexed[i]);
+            }
+        }
+
+        System.out.println();
+
+        if (problems.isEmpty()) {
+            System.out.printf("No day over its capacity of %d across the next %d days, busiest day has %d%n",
+                    maxReservationsPerDay, CHECKED_DAYS, Arrays.stream(booked).max().orElse(0));
+        } else {
+            problems.forEach(System.out::println);
+        }
+
+        return problems.isEmpty();
+    }
+
+    /**
+     * Expands a mix such as read:60,book:25,update:10,cancel:5 into a table picked from uniformly at random.
+     */
+    static Operation[] parseMix(String mix) {
+        List<Operation> table = new ArrayList<>();
+
+        for (String entry : mix.split(",")) {
+            String[] weighted = entry.trim().split(":");
+            Operation operation = Operation.valueOf(weighted[0].trim().toUpperCase());
+
+            for (int i = 0; i < Integer.parseInt(weighted[1].trim()); i++) {
+                table.add(operation);
+            }
+        }
+
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Load mix " + mix + " has no operations");
+        }
+
+        return table.toArray(new Operation[0]);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
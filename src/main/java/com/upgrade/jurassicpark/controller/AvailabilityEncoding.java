@@ -0,0 +1,89 @@
+package com.upgrade.jurassicpark.controller;
+
+import com.upgrade.jurassicpark.model.Calendar;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Compact encodings of a calendar, for clients that only need the available spots and would rather not move the
+ * field names of every day around. Both start with the first day of the range as an epoch day and the number of
+ * days, as unsigned LEB128 varints:
+ *
+ * - {@link #SPOTS}: followed by the available spots of every day, as varints too, so a month of a park taking up to
+ *   127 reservations a day fits in about 35 bytes.
+ * - {@link #FULL_DAYS}: followed by a bitmap with one bit per day, set when the day is fully booked, lowest bit first.
+ *
+ * Clients get them by listing their media type in the Accept header, anything else gets JSON.
+ */
+final class AvailabilityEncoding {
+
+    static final String SPOTS_VALUE = "application/vnd.jurassicpark.availability-spots";
+
+    static final MediaType SPOTS = MediaType.valueOf(SPOTS_VALUE);
+
+    static final String FULL_DAYS_VALUE = "application/vnd.jurassicpark.availability-full-days";
+
+    static final MediaType FULL_DAYS = MediaType.valueOf(FULL_DAYS_VALUE);
+
+    private AvailabilityEncoding() {
+    }
+
+    /**
+     * Returns the compact media type the Accept header asks for, preferring the one of highest quality, or null when
+     * it asks for neither. Wildcards never select a compact encoding.
+     */
+    static MediaType accepted(String accept) {
+        if (accept == null || !accept.contains("vnd.jurassicpark")) {
+            return null;
+        }
+
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortByQualityValue(mediaTypes);
+
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() > 0 && (SPOTS.equalsTypeAndSubtype(mediaType) || FULL_DAYS.equalsTypeAndSubtype(mediaType))) {
+                return SPOTS.equalsTypeAndSubtype(mediaType) ? SPOTS : FULL_DAYS;
+            }
+        }
+
+        return null;
+    }
+
+    static byte[] encode(LocalDate from, Calendar calendar, MediaType mediaType) {
+        int length = calendar.getLength();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(16 + length);
+
+        writeVarint(encoded, from.toEpochDay());
+        writeVarint(encoded, length);
+
+        if (SPOTS.equalsTypeAndSubtype(mediaType)) {
+            for (int i = 0; i < length; i++) {
+                writeVarint(encoded, Math.max(calendar.getAvailableSpots(i), 0));
+            }
+        } else {
+            byte[] fullDays = new byte[(length + 7) / 8];
+
+            for (int i = 0; i < length; i++) {
+                if (calendar.getAvailableSpots(i) <= 0) {
+                    fullDays[i / 8] |= 1 << (i % 8);
+                }
+            }
+
+            encoded.write(fullDays, 0, fullDays.length);
+        }
+
+        return encoded.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream encoded, long value) {
+        while ((value & ~0x7FL) != 0) {
+            encoded.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        encoded.write((int) value);
+    }
+}
@@ -0,0 +1,112 @@
+package com.upgrade.jurassicpark.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Availability of the default window already serialized to JSON and gzip, valid for the day it was built on and
+ * while the inventory version of the window does not change.
+ */
+class AvailabilitySnapshot {
+
+    private final LocalDate day;
+
+    private final long version;
+
+    private final String eTag;
+
+    private final String gzipETag;
+
+    private final byte[] json;
+
+    private final byte[] gzip;
+
+    AvailabilitySnapshot(LocalDate day, long version, String eTag, byte[] json) {
+        this.day = day;
+        this.version = version;
+        this.eTag = eTag;
+        // A strong validator has to change with the content-coding, the quoted identity ETag gets a suffix inside its quotes
+        this.gzipETag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+        this.json = json;
+        this.gzip = gzip(json);
+    }
+
+    boolean isCurrent(LocalDate day, long version) {
+        return this.day.equals(day) && this.version == version;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    String getGzipETag() {
+        return gzipETag;
+    }
+
+    byte[] getJson() {
+        return json;
+    }
+
+    byte[] getGzip() {
+        return gzip;
+    }
+
+    /**
+     * Whether an Accept-Encoding header takes gzip: listed with a quality above zero, or left out while a wildcard
+     * above zero is listed. Other codings merely containing the name, like x-gzip, do not count.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        double gzipQuality = -1;
+        double wildcardQuality = -1;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            double quality = quality(parameters);
+
+            if (name.equalsIgnoreCase("gzip")) {
+                gzipQuality = quality;
+            } else if (name.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+
+        return gzipQuality >= 0 ? gzipQuality > 0 : wildcardQuality > 0;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+
+            if (parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q' && parameter.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    // A quality that cannot be read is no consent
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return compressed.toByteArray();
+    }
+}
@@ -1,60 +1,188 @@
 package com.upgrade.jurassicpark.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.upgrade.jurassicpark.exception.*;
+import com.upgrade.jurassicpark.model.AvailableStay;
+import com.upgrade.jurassicpark.model.BatchReservationResult;
 import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+import com.upgrade.jurassicpark.model.Hold;
 import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationPage;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import com.upgrade.jurassicpark.service.AvailabilityPublisher;
+import com.upgrade.jurassicpark.service.AvailabilitySubscriber;
 import com.upgrade.jurassicpark.service.ReservationService;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/reservations")
 public class ReservationController {
 
+    @Value("${jurassic-world.availability-max-age:0}")
+    private Long availabilityMaxAge;
+
     private final ReservationService reservationService;
 
+    private final AvailabilityPublisher availabilityPublisher;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    private volatile AvailabilitySnapshot defaultAvailability;
+
     @Autowired
-    public ReservationController(ReservationService reservationService) {
+    public ReservationController(ReservationService reservationService, AvailabilityPublisher availabilityPublisher,
+                                 ObjectMapper objectMapper, Validator validator) {
         this.reservationService = reservationService;
+        this.availabilityPublisher = availabilityPublisher;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
     }
 
     @GetMapping("/{email}")
-    @ApiOperation(value = "View a list of active reservations for given email", response = Reservation.class, responseContainer = "List")
+    @ApiOperation(value = "View a list of active reservations for given email", response = ReservationSummary.class, responseContainer = "List")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully retrieved list")
     }
     )
-    public List<Reservation> findAllReservationsActive(
+    public List<ReservationSummary> findAllReservationsActive(
             @PathVariable
-            @ApiParam(value = "Email to retrieve reservations", example = "john6832@gmail.com") String email){
-        return reservationService.findAllReservationsActive(email);
+            @ApiParam(value = "Email to retrieve reservations", example = "john6832@gmail.com") String email,
+            @RequestParam(value = "includeArchived", defaultValue = "false")
+            @ApiParam(value = "Whether to also list the stays that already ended, read from the archive") boolean includeArchived){
+        List<ReservationSummary> reservations = reservationService.findAllReservationsActive(email);
+
+        return includeArchived ? withArchived(email, ReservationStatus.ACTIVE, reservations) : reservations;
     }
 
     @GetMapping("/{email}/cancelled")
-    @ApiOperation(value = "View a list of cancelled reservations for given email", response = Reservation.class, responseContainer = "List")
-    public List<Reservation> findAllReservationsCancelled(
+    @ApiOperation(value = "View a list of cancelled reservations for given email", response = ReservationSummary.class, responseContainer = "List")
+    public List<ReservationSummary> findAllReservationsCancelled(
+            @PathVariable
+            @ApiParam(value = "Email to retrieve cancelled reservations", example = "john6832@gmail.com") String email,
+            @RequestParam(value = "includeArchived", defaultValue = "false")
+            @ApiParam(value = "Whether to also list the cancelled reservations moved to the archive") boolean includeArchived){
+        List<ReservationSummary> reservations = reservationService.findAllReservationsCancelled(email);
+
+        return includeArchived ? withArchived(email, ReservationStatus.CANCELLED, reservations) : reservations;
+    }
+
+    @GetMapping("/{email}/page")
+    @ApiOperation(value = "View one page of active reservations for given email", response = ReservationPage.class)
+    public ReservationPage findReservationsActivePage(
+            @PathVariable
+            @ApiParam(value = "Email to retrieve reservations", example = "john6832@gmail.com") String email,
+            @RequestParam(value = "after", required = false)
+            @ApiParam(value = "Cursor returned as 'next' by the previous page, omitted for the first page") Long after,
+            @RequestParam(value = "size", defaultValue = "100")
+            @ApiParam(value = "Maximum number of reservations in the page, capped by the 'jurassic-world.max-page-size' property", example = "100") int size){
+        return reservationService.findReservationsPage(email, ReservationStatus.ACTIVE, after, size);
+    }
+
+    @GetMapping("/{email}/cancelled/page")
+    @ApiOperation(value = "View one page of cancelled reservations for given email", response = ReservationPage.class)
+    public ReservationPage findReservationsCancelledPage(
+            @PathVariable
+            @ApiParam(value = "Email to retrieve cancelled reservations", example = "john6832@gmail.com") String email,
+            @RequestParam(value = "after", required = false)
+            @ApiParam(value = "Cursor returned as 'next' by the previous page, omitted for the first page") Long after,
+            @RequestParam(value = "size", defaultValue = "100")
+            @ApiParam(value = "Maximum number of reservations in the page, capped by the 'jurassic-world.max-page-size' property", example = "100") int size){
+        return reservationService.findReservationsPage(email, ReservationStatus.CANCELLED, after, size);
+    }
+
+    @GetMapping(value = "/{email}/stream", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ApiOperation(value = "Stream every active reservation for given email as it is read", response = ReservationSummary.class, responseContainer = "List")
+    public StreamingResponseBody streamReservationsActive(
+            @PathVariable
+            @ApiParam(value = "Email to retrieve reservations", example = "john6832@gmail.com") String email){
+        return outputStream -> writeReservations(outputStream, email, ReservationStatus.ACTIVE);
+    }
+
+    @GetMapping(value = "/{email}/cancelled/stream", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ApiOperation(value = "Stream every cancelled reservation for given email as it is read", response = ReservationSummary.class, responseContainer = "List")
+    public StreamingResponseBody streamReservationsCancelled(
             @PathVariable
             @ApiParam(value = "Email to retrieve cancelled reservations", example = "john6832@gmail.com") String email){
-        return reservationService.findAllReservationsCancelled(email);
+        return outputStream -> writeReservations(outputStream, email, ReservationStatus.CANCELLED);
+    }
+
+    /**
+     * Puts the archived reservations, which are older, before the ones still in the reservation table.
+     */
+    private List<ReservationSummary> withArchived(String email, ReservationStatus reservationStatus, List<ReservationSummary> reservations) {
+        List<ReservationSummary> archived = reservationService.findAllReservationsArchived(email, reservationStatus);
+
+        if (archived.isEmpty()) {
+            return reservations;
+        }
+
+        List<ReservationSummary> allReservations = new ArrayList<>(archived.size() + reservations.size());
+        allReservations.addAll(archived);
+        allReservations.addAll(reservations);
+
+        return allReservations;
+    }
+
+    /**
+     * Writes the reservations as a JSON array one element at a time, so only the serializer buffer is held in memory.
+     */
+    private void writeReservations(OutputStream outputStream, String email, ReservationStatus reservationStatus) throws IOException {
+        try (SequenceWriter sequenceWriter = objectMapper.writer().writeValuesAsArray(outputStream)) {
+            reservationService.forEachReservation(email, reservationStatus, reservation -> {
+                try {
+                    sequenceWriter.write(reservation);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
     }
 
     @GetMapping("/availability")
-    @ApiOperation(value = "Returns a Calendar object with the day-per-day availability of reservations within specified range", response = Calendar.class)
+    @ApiOperation(value = "Returns a Calendar object with the day-per-day availability of reservations within specified range", response = Calendar.class,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE + ", " + AvailabilityEncoding.SPOTS_VALUE + ", " + AvailabilityEncoding.FULL_DAYS_VALUE)
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "Calendar showing availability for every day within specified range")
+            @ApiResponse(code = 200, message = "Calendar showing availability for every day within specified range"),
+            @ApiResponse(code = 304, message = "Availability did not change since the calendar matching the 'If-None-Match' ETag")
     })
-    public Calendar getCalendar(
+    public ResponseEntity<?> getCalendar(
 
             @RequestParam(value = "from", required = false)
             @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
@@ -68,9 +196,188 @@ public class ReservationController {
             @ApiParam(
                     value = "End date the user wish to calculate availability",
                     format = "yyyy-MM-dd'T'HH:mm:ss",
+                    example = "2019-01-29T00:00:00") LocalDateTime to,
+
+            WebRequest request
+
+    ) throws JsonProcessingException {
+
+        MediaType compactType = AvailabilityEncoding.accepted(request.getHeader(HttpHeaders.ACCEPT));
+
+        if (from == null && to == null && compactType == null) {
+            return getDefaultCalendar(request);
+        }
+
+        if (from == null) {
+            from = LocalDate.now().atStartOfDay();
+        }
+
+        if (to == null) {
+            to = LocalDate.now().atStartOfDay().plusMonths(1);
+        }
+
+        // Served from the calendars cached by inventory version, the ETag is computed from their content so every
+        // instance behind a load balancer gives the same one to the same availability
+
+        Calendar calendar = reservationService.getReservationCalendar(from, to);
+        String eTag = compactType == null ? eTag(calendar, from, to) : eTag(calendar, from, to, compactType);
+
+        if (request.checkNotModified(eTag)) {
+            // Revalidating a compact representation has to tell shared caches it depends on Accept like the 200 did
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.maxAge(availabilityMaxAge, TimeUnit.SECONDS).cachePublic().mustRevalidate())
+                .varyBy(HttpHeaders.ACCEPT);
+
+        if (compactType != null) {
+            return response.contentType(compactType).body(AvailabilityEncoding.encode(from.toLocalDate(), calendar, compactType));
+        }
+
+        return response.body(calendar);
+    }
+
+    /**
+     * Serves the default window from the pre-serialized snapshot, which is only rebuilt when a day of the window
+     * changed or the window moved to a new day.
+     */
+    private ResponseEntity<?> getDefaultCalendar(WebRequest request) throws JsonProcessingException {
+
+        AvailabilitySnapshot snapshot = defaultAvailability();
+        boolean gzip = AvailabilitySnapshot.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+        // Each coding is compared against its own ETag, so a cache holding one never revalidates into the other
+        String eTag = gzip ? snapshot.getGzipETag() : snapshot.getETag();
+
+        if (request.checkNotModified(eTag)) {
+            // Shared caches revalidating a stored representation need to know it depends on both headers too
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(eTag)
+                .cacheControl(CacheControl.maxAge(availabilityMaxAge, TimeUnit.SECONDS).cachePublic().mustRevalidate())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.getGzip());
+        }
+
+        return response.body(snapshot.getJson());
+    }
+
+    private AvailabilitySnapshot defaultAvailability() throws JsonProcessingException {
+
+        LocalDateTime from = LocalDate.now().atStartOfDay();
+        LocalDateTime to = from.plusMonths(1);
+
+        long version = reservationService.getInventoryVersion(from, to);
+
+        AvailabilitySnapshot snapshot = defaultAvailability;
+
+        if (snapshot == null || !snapshot.isCurrent(from.toLocalDate(), version)) {
+            Calendar calendar = reservationService.getReservationCalendar(from, to);
+
+            snapshot = new AvailabilitySnapshot(from.toLocalDate(), version, eTag(calendar, from, to), objectMapper.writeValueAsBytes(calendar));
+
+            defaultAvailability = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    private static String eTag(Calendar calendar, LocalDateTime from, LocalDateTime to) {
+        return "\"" + contentHash(calendar) + "-" + from.toLocalDate() + "-" + to.toLocalDate() + "\"";
+    }
+
+    private static String eTag(Calendar calendar, LocalDateTime from, LocalDateTime to, MediaType compactType) {
+        return "\"" + contentHash(calendar) + "-" + from.toLocalDate() + "-" + to.toLocalDate() + "-" + compactType.getSubtype() + "\"";
+    }
+
+    /**
+     * 64-bit FNV-1a of the first day, the capacity and the count of every day, the same on every instance for the
+     * same availability, unlike the inventory version which each instance numbers on its own.
+     */
+    private static String contentHash(Calendar calendar) {
+        long hash = 0xcbf29ce484222325L;
+
+        hash = (hash ^ calendar.getFrom().toEpochDay()) * 0x100000001b3L;
+        hash = (hash ^ calendar.getMaxReservations()) * 0x100000001b3L;
+
+        for (int i = 0; i < calendar.getLength(); i++) {
+            hash = (hash ^ calendar.getReservationsMade(i)) * 0x100000001b3L;
+        }
+
+        return Long.toHexString(hash);
+    }
+
+    @GetMapping("/availability/search")
+    @ApiOperation(value = "Returns the earliest, or all, stays of the given length with the given spots left on every day, arriving within specified range", response = AvailableStay.class, responseContainer = "List")
+    public List<AvailableStay> searchAvailability(
+
+            @RequestParam(value = "nights")
+            @ApiParam(value = "Nights of the stay, the departure date being that many days after the arrival", example = "2") int nights,
+
+            @RequestParam(value = "spots", defaultValue = "1")
+            @ApiParam(value = "Spots needed on every day of the stay", example = "1") int spots,
+
+            @RequestParam(value = "from", required = false)
+            @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+            @ApiParam(
+                    value = "Earliest arrival date, the first bookable day by default",
+                    format = "yyyy-MM-dd'T'HH:mm:ss",
+                    example = "2019-01-29T00:00:00") LocalDateTime from,
+
+            @RequestParam(value = "to", required = false)
+            @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+            @ApiParam(
+                    value = "Latest arrival date, the last bookable day by default",
+                    format = "yyyy-MM-dd'T'HH:mm:ss",
+                    example = "2019-02-28T00:00:00") LocalDateTime to,
+
+            @RequestParam(value = "all", defaultValue = "false")
+            @ApiParam(value = "Whether to return every available stay instead of the earliest one") boolean all
+
+    ) throws MaxDaysExceededException, EndDateBeforeStartDateException {
+
+        return reservationService.findAvailableStays(
+                from == null ? LocalDate.MIN : from.toLocalDate(),
+                to == null ? LocalDate.MAX : to.toLocalDate(),
+                nights, spots, all ? Integer.MAX_VALUE : 1);
+    }
+
+    @GetMapping(path = "/availability/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation(value = "Streams the availability within specified range: a 'snapshot' event with the whole Calendar, then 'changed' events with the days whose availability changed")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Server-sent events with the availability for every day within specified range"),
+            @ApiResponse(code = 503, message = "Too many clients are streaming the availability already")
+    })
+    public SseEmitter streamCalendar(
+
+            @RequestParam(value = "from", required = false)
+            @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+            @ApiParam(
+                    value = "Start date the user wish to follow availability",
+                    format = "yyyy-MM-dd'T'HH:mm:ss",
+                    example = "2019-01-29T00:00:00") LocalDateTime from,
+
+            @RequestParam(value = "to", required = false)
+            @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+            @ApiParam(
+                    value = "End date the user wish to follow availability",
+                    format = "yyyy-MM-dd'T'HH:mm:ss",
                     example = "2019-01-29T00:00:00") LocalDateTime to
 
-    ) {
+    ) throws TooManySubscribersException {
 
         if (from == null) {
             from = LocalDate.now().atStartOfDay();
@@ -80,7 +387,37 @@ public class ReservationController {
             to = LocalDate.now().atStartOfDay().plusMonths(1);
         }
 
-        return reservationService.getReservationCalendar(from, to);
+        // No timeout, the publisher ends subscriptions that fall behind and heartbeats find the clients that left
+        SseEmitter emitter = new SseEmitter(0L);
+
+        AvailabilityPublisher.Subscription subscription = availabilityPublisher.subscribe(from.toLocalDate(), to.toLocalDate(), new AvailabilitySubscriber() {
+
+            @Override
+            public void snapshot(Calendar calendar) throws IOException {
+                emitter.send(SseEmitter.event().name("snapshot").data(calendar, MediaType.APPLICATION_JSON_UTF8));
+            }
+
+            @Override
+            public void changed(List<Day> days) throws IOException {
+                emitter.send(SseEmitter.event().name("changed").data(days, MediaType.APPLICATION_JSON_UTF8));
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+
+            @Override
+            public void closed() {
+                emitter.complete();
+            }
+        });
+
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+
+        return emitter;
     }
 
     @PostMapping(path = "")
@@ -89,12 +426,68 @@ public class ReservationController {
             @ApiResponse(code = 200, message = "Reservation was created and the token retrieved"),
             @ApiResponse(code = 400, response = ExceptionResponse.class, message = "Reservation could not be created because of a validation error")
     })
-    public ResponseEntity save(@Valid @RequestBody Reservation reservation) throws BookingTooSoonException,
-            MaxDaysExceededException, BookingTooLateException, MaxReservationsPerDayExceededException, BookingInThePastException, EndDateBeforeStartDateException {
+    public CompletableFuture<ResponseEntity<String>> save(@Valid @RequestBody Reservation reservation) throws BookingTooSoonException,
+            MaxDaysExceededException, BookingTooLateException, BookingInThePastException, EndDateBeforeStartDateException {
+
+        // The request thread is released while the reservation waits to be booked
+        return reservationService.saveAsync(reservation).thenApply(savedReservation -> ResponseEntity.ok(savedReservation.getToken()));
+    }
+
+    @PostMapping(path = "/holds")
+    @ApiOperation(value = "Hold the days of a reservation for a few minutes before booking it", response = Hold.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Days were held and the hold retrieved, they are given back unless it is confirmed before it expires"),
+            @ApiResponse(code = 400, response = ExceptionResponse.class, message = "Days could not be held because of a validation error")
+    })
+    public Hold hold(@Valid @RequestBody Reservation reservation) throws BookingTooSoonException, MaxDaysExceededException,
+            BookingTooLateException, MaxReservationsPerDayExceededException, BookingInThePastException, EndDateBeforeStartDateException {
 
-        Reservation savedReservation = reservationService.save(reservation);
+        Reservation heldReservation = reservationService.hold(reservation);
+
+        return new Hold(heldReservation.getToken(), heldReservation.getHeldUntil());
+    }
+
+    @PostMapping(path = "/holds/{holdId}/confirm")
+    @ApiOperation(value = "Book the reservation held with the given id", response = String.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Reservation was booked and the token retrieved"),
+            @ApiResponse(code = 410, response = ExceptionResponse.class, message = "The hold expired, was cancelled or never existed")
+    })
+    public ResponseEntity<String> confirmHold(@PathVariable String holdId) throws HoldExpiredException {
+        return ResponseEntity.ok(reservationService.confirmHold(holdId).getToken());
+    }
+
+    @PostMapping(path = "/batch")
+    @ApiOperation(value = "Create many reservations at once", response = BatchReservationResult.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Every reservation was either created or rejected, in the same order they were sent")
+    })
+    public List<BatchReservationResult> saveAll(@RequestBody List<Reservation> reservations) {
+
+        // Invalid reservations are rejected one by one instead of failing the whole batch
+
+        BatchReservationResult[] results = new BatchReservationResult[reservations.size()];
+        List<Integer> valid = new ArrayList<>();
+
+        for (int i = 0; i < reservations.size(); i++) {
+            Set<ConstraintViolation<Reservation>> violations = validator.validate(reservations.get(i));
+
+            if (violations.isEmpty()) {
+                valid.add(i);
+            } else {
+                ConstraintViolation<Reservation> violation = violations.iterator().next();
+
+                results[i] = new BatchReservationResult(null, new ExceptionResponse(violation.getPropertyPath() + ": '" + violation.getInvalidValue() + "': " + violation.getMessage(), HttpStatus.BAD_REQUEST.value()));
+            }
+        }
+
+        List<BatchReservationResult> savedResults = reservationService.saveAll(valid.stream().map(reservations::get).collect(Collectors.toList()));
+
+        for (int i = 0; i < valid.size(); i++) {
+            results[valid.get(i)] = savedResults.get(i);
+        }
 
-        return ResponseEntity.ok(savedReservation.getToken());
+        return Arrays.asList(results);
     }
 
     @PutMapping(path = "/{token}")
@@ -116,7 +509,7 @@ public class ReservationController {
         reservation.setId(savedReservation.getId());
         reservation.setToken(savedReservation.getToken());
 
-        reservationService.save(reservation);
+        reservationService.modify(reservation);
 
         return ResponseEntity.ok(reservation);
     }
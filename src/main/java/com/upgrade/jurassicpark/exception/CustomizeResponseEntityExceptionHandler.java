@@ -12,6 +12,7 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 
 import javax.validation.constraints.NotNull;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @ControllerAdvice
@@ -56,16 +57,38 @@ public class CustomizeResponseEntityExceptionHandler extends ResponseEntityExcep
 
     @ExceptionHandler(MaxReservationsPerDayExceededException.class)
     protected ResponseEntity<ExceptionResponse> handleMaxReservationsPerDayExceededException(MaxReservationsPerDayExceededException ex, WebRequest request) {
-        ExceptionResponse response = new ExceptionResponse(ex.getMessage(), HttpStatus.BAD_REQUEST.value());
+        ExceptionResponse response = new FullyBookedExceptionResponse(ex.getMessage(), HttpStatus.BAD_REQUEST.value(), ex.getAlternatives());
         return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(CompletionException.class)
+    protected ResponseEntity<ExceptionResponse> handleCompletionException(CompletionException ex, WebRequest request) {
+        // Reservations booked asynchronously fail with the reason wrapped
+        if (ex.getCause() instanceof MaxReservationsPerDayExceededException) {
+            return handleMaxReservationsPerDayExceededException((MaxReservationsPerDayExceededException) ex.getCause(), request);
+        }
+
+        return handleAllExceptions(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex, request);
+    }
+
     @ExceptionHandler(ReservationNotFoundException.class)
     protected ResponseEntity<ExceptionResponse> handleReservationNotFoundException(ReservationNotFoundException ex, WebRequest request) {
         ExceptionResponse response = new ExceptionResponse(ex.getMessage(), HttpStatus.NOT_FOUND.value());
         return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(HoldExpiredException.class)
+    protected ResponseEntity<ExceptionResponse> handleHoldExpiredException(HoldExpiredException ex, WebRequest request) {
+        ExceptionResponse response = new ExceptionResponse(ex.getMessage(), HttpStatus.GONE.value());
+        return new ResponseEntity<>(response, HttpStatus.GONE);
+    }
+
+    @ExceptionHandler(TooManySubscribersException.class)
+    protected ResponseEntity<ExceptionResponse> handleTooManySubscribersException(TooManySubscribersException ex, WebRequest request) {
+        ExceptionResponse response = new ExceptionResponse(ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE.value());
+        return new ResponseEntity<>(response, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected ResponseEntity handleMethodArgumentNotValid(@NotNull MethodArgumentNotValidException ex, @NotNull HttpHeaders headers, @NotNull HttpStatus status, @NotNull WebRequest request) {
@@ -0,0 +1,23 @@
+package com.upgrade.jurassicpark.exception;
+
+import com.upgrade.jurassicpark.model.AvailableStay;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+@ApiModel(description = "Object encapsulating the error details of a stay that is fully booked, with stays that could be booked instead")
+public class FullyBookedExceptionResponse extends ExceptionResponse {
+
+    @ApiModelProperty(value = "Stays of the same length that can still be booked, nearest to the requested one first")
+    private List<AvailableStay> alternatives;
+
+    public FullyBookedExceptionResponse(String message, int status, List<AvailableStay> alternatives) {
+        super(message, status);
+        this.alternatives = alternatives;
+    }
+
+    public List<AvailableStay> getAlternatives() {
+        return alternatives;
+    }
+}
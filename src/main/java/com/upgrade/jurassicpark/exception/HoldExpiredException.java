@@ -0,0 +1,8 @@
+package com.upgrade.jurassicpark.exception;
+
+public class HoldExpiredException extends Exception {
+
+    public HoldExpiredException(String holdId) {
+        super("Hold not found or expired with id: " + holdId);
+    }
+}
@@ -1,12 +1,29 @@
 package com.upgrade.jurassicpark.exception;
 
+import com.upgrade.jurassicpark.model.AvailableStay;
+
 import java.time.LocalDate;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class MaxReservationsPerDayExceededException extends Exception {
 
+    private List<AvailableStay> alternatives = Collections.emptyList();
+
     public MaxReservationsPerDayExceededException(List<LocalDate> invalidDates) {
         super("Sorry, Jurassic Park is full on following day(s): " + invalidDates.stream().map(LocalDate::toString).collect(Collectors.joining(", ")) + ", so we cannot book your reservation");
     }
+
+    /**
+     * Stays of the same length close to the one refused that could still be booked, nearest first.
+     */
+    public List<AvailableStay> getAlternatives() {
+        return alternatives;
+    }
+
+    public MaxReservationsPerDayExceededException withAlternatives(List<AvailableStay> alternatives) {
+        this.alternatives = alternatives;
+        return this;
+    }
 }
@@ -0,0 +1,8 @@
+package com.upgrade.jurassicpark.exception;
+
+public class TooManySubscribersException extends Exception {
+
+    public TooManySubscribersException(Integer maxSubscribers) {
+        super("Sorry, availability is already streamed to " + maxSubscribers + " clients, please try again later");
+    }
+}
@@ -0,0 +1,83 @@
+package com.upgrade.jurassicpark.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Reservation that ended or was cancelled, moved out of the reservation table with the same id and token.
+ */
+@Entity
+@Table(name = "reservation_archive")
+public class ArchivedReservation implements Serializable {
+
+    private static final long serialVersionUID = 5214096310541727863L;
+
+    @Id
+    private Long id;
+
+    private String token;
+
+    private String name;
+
+    private String email;
+
+    private LocalDateTime arrivalDate;
+
+    private LocalDateTime departureDate;
+
+    @Column(name = "status")
+    private ReservationStatus reservationStatus;
+
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime archivedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public LocalDateTime getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public LocalDateTime getDepartureDate() {
+        return departureDate;
+    }
+
+    public ReservationStatus getReservationStatus() {
+        return reservationStatus;
+    }
+
+    public LocalDateTime getArchivedAt() {
+        return archivedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchivedReservation that = (ArchivedReservation) o;
+        return Objects.equals(getId(), that.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getId());
+    }
+}
@@ -0,0 +1,29 @@
+package com.upgrade.jurassicpark.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.time.LocalDateTime;
+
+@ApiModel(description = "Object encapsulating a stay that can still be booked")
+public class AvailableStay {
+
+    public AvailableStay(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        this.arrivalDate = arrivalDate;
+        this.departureDate = departureDate;
+    }
+
+    @ApiModelProperty(value = "Stay starting date", example = "2019-02-02T00:00:00")
+    private LocalDateTime arrivalDate;
+
+    @ApiModelProperty(value = "Stay ending date", example = "2019-02-04T00:00:00")
+    private LocalDateTime departureDate;
+
+    public LocalDateTime getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public LocalDateTime getDepartureDate() {
+        return departureDate;
+    }
+}
@@ -0,0 +1,30 @@
+package com.upgrade.jurassicpark.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.upgrade.jurassicpark.exception.ExceptionResponse;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(description = "Object encapsulating the outcome of one reservation of a batch")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchReservationResult {
+
+    public BatchReservationResult(String token, ExceptionResponse error) {
+        this.token = token;
+        this.error = error;
+    }
+
+    @ApiModelProperty(value = "Token of the reservation, only present when it was booked", example = "2d7428a6-b58c-4008-8575-f05549f16316")
+    private String token;
+
+    @ApiModelProperty(value = "Reason the reservation was not booked, only present when it was rejected")
+    private ExceptionResponse error;
+
+    public String getToken() {
+        return token;
+    }
+
+    public ExceptionResponse getError() {
+        return error;
+    }
+}
@@ -1,22 +1,89 @@
 package com.upgrade.jurassicpark.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
+import java.time.LocalDate;
+import java.util.AbstractList;
 import java.util.List;
 
+/**
+ * Availability of consecutive days, stored as the first day and the number of reservations made on every day, so
+ * a year-long range is one array instead of hundreds of {@link Day} objects. Days are only built when asked for,
+ * and JSON is written straight from the array by {@link CalendarSerializer}.
+ */
 @ApiModel(description = "Object encapsulating a list of days with the Jurassic Park availability")
+@JsonSerialize(using = CalendarSerializer.class)
 public class Calendar {
 
+    private final LocalDate from;
+
+    private final int[] reservationsMade;
+
+    private final int maxReservations;
+
+    public Calendar(LocalDate from, int[] reservationsMade, int maxReservations) {
+        this.from = from;
+        this.reservationsMade = reservationsMade;
+        this.maxReservations = maxReservations;
+    }
+
+    /**
+     * Builds a calendar out of consecutive days sharing the same maximum of reservations.
+     */
     public Calendar(List<Day> days) {
-        this.days = days;
+        this.from = days.isEmpty() ? LocalDate.MIN : days.get(0).getDate();
+        this.reservationsMade = new int[days.size()];
+        this.maxReservations = days.isEmpty() ? 0 : days.get(0).getMaxReservations();
+
+        for (int i = 0; i < days.size(); i++) {
+            Day day = days.get(i);
+
+            if (!day.getDate().equals(from.plusDays(i)) || day.getMaxReservations() != maxReservations) {
+                throw new IllegalArgumentException("Days must be consecutive and share the same maximum of reservations: " + day.getDate());
+            }
+
+            reservationsMade[i] = day.getReservationsMade().intValue();
+        }
     }
 
     @ApiModelProperty(value = "Days queried with Jurassic Park current availability")
-    private List<Day> days;
-
     public List<Day> getDays() {
-        return days;
+        return new AbstractList<Day>() {
+
+            @Override
+            public Day get(int index) {
+                return new Day(from.plusDays(index), (long) reservationsMade[index], maxReservations);
+            }
+
+            @Override
+            public int size() {
+                return reservationsMade.length;
+            }
+        };
+    }
+
+    @ApiModelProperty(hidden = true)
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    @ApiModelProperty(hidden = true)
+    public int getLength() {
+        return reservationsMade.length;
     }
 
+    @ApiModelProperty(hidden = true)
+    public int getMaxReservations() {
+        return maxReservations;
+    }
+
+    public int getReservationsMade(int day) {
+        return reservationsMade[day];
+    }
+
+    public int getAvailableSpots(int day) {
+        return maxReservations - reservationsMade[day];
+    }
 }
@@ -0,0 +1,90 @@
+package com.upgrade.jurassicpark.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * Writes a {@link Calendar} in the same shape as a list of {@link Day}, straight from its array of reservations.
+ * Dates are formatted into one reused buffer, walking the calendar day by day instead of building a date and a
+ * string for every day.
+ */
+public class CalendarSerializer extends StdSerializer<Calendar> {
+
+    public CalendarSerializer() {
+        super(Calendar.class);
+    }
+
+    @Override
+    public void serialize(Calendar calendar, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        int length = calendar.getLength();
+        int maxReservations = calendar.getMaxReservations();
+
+        generator.writeStartObject();
+        generator.writeFieldName("days");
+        generator.writeStartArray(length);
+
+        if (length > 0) {
+            LocalDate from = calendar.getFrom();
+            int year = from.getYear();
+            int month = from.getMonthValue();
+            int dayOfMonth = from.getDayOfMonth();
+            int monthLength = from.lengthOfMonth();
+            char[] date = new char[10];
+
+            for (int i = 0; i < length; i++) {
+                generator.writeStartObject();
+                generator.writeFieldName("date");
+
+                if (year >= 0 && year <= 9999) {
+                    formatDate(date, year, month, dayOfMonth);
+                    generator.writeString(date, 0, date.length);
+                } else {
+                    // Only four digit years fit the buffer
+                    generator.writeString(LocalDate.of(year, month, dayOfMonth).toString());
+                }
+
+                generator.writeNumberField("reservationsMade", calendar.getReservationsMade(i));
+                generator.writeNumberField("maxReservations", maxReservations);
+                generator.writeNumberField("availableSpots", calendar.getAvailableSpots(i));
+                generator.writeEndObject();
+
+                if (++dayOfMonth > monthLength) {
+                    dayOfMonth = 1;
+
+                    if (++month > 12) {
+                        month = 1;
+                        year++;
+                    }
+
+                    monthLength = Month.of(month).length(Year.isLeap(year));
+                }
+            }
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void formatDate(char[] date, int year, int month, int dayOfMonth) {
+        date[0] = digit(year / 1000);
+        date[1] = digit(year / 100 % 10);
+        date[2] = digit(year / 10 % 10);
+        date[3] = digit(year % 10);
+        date[4] = '-';
+        date[5] = digit(month / 10);
+        date[6] = digit(month % 10);
+        date[7] = '-';
+        date[8] = digit(dayOfMonth / 10);
+        date[9] = digit(dayOfMonth % 10);
+    }
+
+    private static char digit(int value) {
+        return (char) ('0' + value);
+    }
+}
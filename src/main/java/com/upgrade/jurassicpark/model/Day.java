@@ -53,6 +53,6 @@ public class Day implements Comparable<Day> {
 
     @Override
     public int compareTo(Day day) {
-        return getDate().isBefore(day.getDate()) ? -1 : 1;
+        return getDate().compareTo(day.getDate());
     }
 }
@@ -0,0 +1,56 @@
+package com.upgrade.jurassicpark.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+@Entity
+public class DayCapacity implements Serializable {
+
+    private static final long serialVersionUID = 2871534079834420315L;
+
+    public DayCapacity() {
+    }
+
+    public DayCapacity(LocalDate day, Integer booked, Integer maxReservations) {
+        this.day = day;
+        this.booked = booked;
+        this.maxReservations = maxReservations;
+    }
+
+    @Id
+    private LocalDate day;
+
+    private Integer booked;
+
+    @Column(name = "max")
+    private Integer maxReservations;
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public Integer getBooked() {
+        return booked;
+    }
+
+    public Integer getMaxReservations() {
+        return maxReservations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DayCapacity that = (DayCapacity) o;
+        return Objects.equals(getDay(), that.getDay());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getDay());
+    }
+}
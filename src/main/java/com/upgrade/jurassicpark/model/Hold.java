@@ -0,0 +1,29 @@
+package com.upgrade.jurassicpark.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.time.LocalDateTime;
+
+@ApiModel(description = "Object encapsulating the days held for a reservation until it is confirmed")
+public class Hold {
+
+    public Hold(String holdId, LocalDateTime expiresAt) {
+        this.holdId = holdId;
+        this.expiresAt = expiresAt;
+    }
+
+    @ApiModelProperty(value = "Identifier to confirm the hold with, which becomes the token of the reservation", example = "2d7428a6-b58c-4008-8575-f05549f16316")
+    private String holdId;
+
+    @ApiModelProperty(value = "Time after which the days are released unless the hold was confirmed", example = "2019-02-02T10:05:00")
+    private LocalDateTime expiresAt;
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -20,7 +20,8 @@ public class Reservation implements Serializable {
 
     @Id
     @JsonIgnore
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reservation_seq")
+    @SequenceGenerator(name = "reservation_seq", sequenceName = "reservation_seq", allocationSize = 50)
     private Long id;
 
     @ApiModelProperty(value = "Unique alpha-numeric text to identify reservation", example = "2d7428a6-b58c-4008-8575-f05549f16316")
@@ -46,10 +47,13 @@ public class Reservation implements Serializable {
     @NotNull
     private LocalDateTime departureDate;
 
-    @ManyToOne
+    @Column(name = "status")
     @JsonIgnore
     private ReservationStatus reservationStatus;
 
+    @JsonIgnore
+    private LocalDateTime heldUntil;
+
     public Long getId() {
         return id;
     }
@@ -106,6 +110,17 @@ public class Reservation implements Serializable {
         this.reservationStatus = reservationStatus;
     }
 
+    /**
+     * Time until which a held reservation keeps its days without being confirmed, null once it was.
+     */
+    public LocalDateTime getHeldUntil() {
+        return heldUntil;
+    }
+
+    public void setHeldUntil(LocalDateTime heldUntil) {
+        this.heldUntil = heldUntil;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
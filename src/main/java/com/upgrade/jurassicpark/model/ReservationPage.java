@@ -0,0 +1,32 @@
+package com.upgrade.jurassicpark.model;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+@ApiModel(description = "Object encapsulating one page of reservations for a given email")
+public class ReservationPage {
+
+    public ReservationPage(List<ReservationSummary> reservations, Long next) {
+        this.reservations = reservations;
+        this.next = next;
+    }
+
+    @ApiModelProperty(value = "Reservations of this page, in booking order")
+    private List<ReservationSummary> reservations;
+
+    @ApiModelProperty(
+            value = "Cursor to pass as 'after' to get the next page",
+            example = "1050",
+            notes = "Absent on the last page")
+    private Long next;
+
+    public List<ReservationSummary> getReservations() {
+        return reservations;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+}
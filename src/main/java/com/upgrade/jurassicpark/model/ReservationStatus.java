@@ -1,62 +1,38 @@
 package com.upgrade.jurassicpark.model;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
-import java.io.Serializable;
-import java.util.Objects;
+import java.util.Arrays;
 
-@Entity
-public class ReservationStatus implements Serializable {
+public enum ReservationStatus {
 
+    ACTIVE("A"),
+    CANCELLED("C"),
+    HELD("H");
 
-    private static final long serialVersionUID = 4563098179233201524L;
+    private final String code;
 
-    public static ReservationStatus ACTIVE = new ReservationStatus(1, "Active");
-    public static ReservationStatus CANCELLED = new ReservationStatus(2, "Cancelled");
-
-    public ReservationStatus() {
-    }
-
-    private ReservationStatus(Integer id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Integer id;
-
-    private String name;
-
-    public Integer getId() {
-        return id;
-    }
-
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
-    public String getName() {
-        return name;
+    ReservationStatus(String code) {
+        this.code = code;
     }
 
-    public void setName(String name) {
-        this.name = name;
+    /**
+     * Single character stored in the reservation status column.
+     */
+    public String getCode() {
+        return code;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        ReservationStatus that = (ReservationStatus) o;
-        return Objects.equals(getId(), that.getId()) &&
-                Objects.equals(getName(), that.getName());
+    /**
+     * Whether reservations with this status take a spot on every day of their stay. Holds do until they are
+     * confirmed or expire.
+     */
+    public boolean holdsDays() {
+        return this == ACTIVE || this == HELD;
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(getId(), getName());
+    public static ReservationStatus fromCode(String code) {
+        return Arrays.stream(values())
+                .filter(status -> status.code.equals(code))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown reservation status code: " + code));
     }
 }
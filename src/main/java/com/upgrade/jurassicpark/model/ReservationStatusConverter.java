@@ -0,0 +1,18 @@
+package com.upgrade.jurassicpark.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+@Converter(autoApply = true)
+public class ReservationStatusConverter implements AttributeConverter<ReservationStatus, String> {
+
+    @Override
+    public String convertToDatabaseColumn(ReservationStatus reservationStatus) {
+        return reservationStatus == null ? null : reservationStatus.getCode();
+    }
+
+    @Override
+    public ReservationStatus convertToEntityAttribute(String code) {
+        return code == null ? null : ReservationStatus.fromCode(code);
+    }
+}
@@ -0,0 +1,62 @@
+package com.upgrade.jurassicpark.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.time.LocalDateTime;
+
+@ApiModel(description = "Read-only view of a reservation, as listed for a given email")
+public class ReservationSummary {
+
+    public ReservationSummary(Long id, String token, String name, String email, LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        this.id = id;
+        this.token = token;
+        this.name = name;
+        this.email = email;
+        this.arrivalDate = arrivalDate;
+        this.departureDate = departureDate;
+    }
+
+    @JsonIgnore
+    private Long id;
+
+    @ApiModelProperty(value = "Unique alpha-numeric text to identify reservation", example = "2d7428a6-b58c-4008-8575-f05549f16316")
+    private String token;
+
+    @ApiModelProperty(value = "Booking user name", example = "Johnn Guerrero")
+    private String name;
+
+    @ApiModelProperty(value = "Booking user email", example = "john6832@gmail.com")
+    private String email;
+
+    @ApiModelProperty(value = "Reservation starting date", example = "2019-02-02T00:00:00")
+    private LocalDateTime arrivalDate;
+
+    @ApiModelProperty(value = "Reservation ending date", example = "2019-02-04T00:00:00")
+    private LocalDateTime departureDate;
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public LocalDateTime getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public LocalDateTime getDepartureDate() {
+        return departureDate;
+    }
+}
@@ -0,0 +1,29 @@
+package com.upgrade.jurassicpark.repository;
+
+import com.upgrade.jurassicpark.model.ArchivedReservation;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ArchivedReservationRepository extends JpaRepository<ArchivedReservation, Long> {
+
+    @Query("select new com.upgrade.jurassicpark.model.ReservationSummary(r.id, r.token, r.name, r.email, r.arrivalDate, r.departureDate) " +
+            "from ArchivedReservation r where r.email = :email and r.reservationStatus = :reservationStatus order by r.id")
+    List<ReservationSummary> findAllByEmailAndReservationStatus(@Param("email") String email, @Param("reservationStatus") ReservationStatus reservationStatus);
+
+    /**
+     * Copies the given reservations into the archive within the database, without loading them.
+     */
+    @Modifying
+    @Query("insert into ArchivedReservation (id, token, name, email, arrivalDate, departureDate, reservationStatus) " +
+            "select r.id, r.token, r.name, r.email, r.arrivalDate, r.departureDate, r.reservationStatus from Reservation r where r.id in :ids")
+    int copyFromReservations(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,106 @@
+package com.upgrade.jurassicpark.repository;
+
+import com.upgrade.jurassicpark.model.DayCapacity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+@Repository
+public interface DayCapacityRepository extends JpaRepository<DayCapacity, LocalDate> {
+
+    List<DayCapacity> findAllByDayBetweenOrderByDay(LocalDate from, LocalDate to);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select d from DayCapacity d where d.day between :from and :to order by d.day")
+    List<DayCapacity> findAllByDayBetweenForUpdate(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    /**
+     * Day and booked count of every row between from and to. Read as values rather than entities, so counts changed
+     * by the bulk updates below are seen even when their rows are already in the persistence context.
+     */
+    @Query("select d.day, d.booked from DayCapacity d where d.day between :from and :to")
+    List<Object[]> findBookedByDayBetween(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    /**
+     * Booked count for every day between from and to (both inclusive), read with one range scan of the primary key.
+     * Days without a row have no active reservation.
+     */
+    default int[] bookedPerDay(LocalDate from, LocalDate to) {
+        int[] bookedPerDay = new int[(int) ChronoUnit.DAYS.between(from, to) + 1];
+
+        for (Object[] dayCapacity : findBookedByDayBetween(from, to)) {
+            bookedPerDay[(int) ChronoUnit.DAYS.between(from, (LocalDate) dayCapacity[0])] = (Integer) dayCapacity[1];
+        }
+
+        return bookedPerDay;
+    }
+
+    /**
+     * Books one spot on every day between from and to, or on none of them if any of those days is already full.
+     * A day filling up while the statement runs is skipped by booked < max alone, so fewer rows than days means the
+     * claim only partly happened.
+     */
+    @Modifying
+    @Query("update DayCapacity d set d.booked = d.booked + 1 " +
+            "where d.day between :from and :to and d.booked < d.maxReservations " +
+            "and not exists (select f from DayCapacity f where f.day between :from and :to and f.booked >= f.maxReservations)")
+    int claim(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    /**
+     * Moves one spot from the days between previousFrom and previousTo to the days between from and to, or changes
+     * none of them if any day only in the new range is already full. Days in both ranges keep their count, as do
+     * the days of the span between firstDay and lastDay that are in neither. The span covering both ranges lets the
+     * update use a single range of the primary key, a disjunction of two ranges would scan the table.
+     */
+    @Modifying
+    @Query("update DayCapacity d set d.booked = d.booked " +
+            "+ (case when d.day between :from and :to then 1 else 0 end) " +
+            "- (case when d.day between :previousFrom and :previousTo then 1 else 0 end) " +
+            "where d.day between :firstDay and :lastDay " +
+            "and not exists (select f from DayCapacity f where f.day between :from and :to " +
+            "and (f.day < :previousFrom or f.day > :previousTo) and f.booked >= f.maxReservations)")
+    int move(@Param("previousFrom") LocalDate previousFrom, @Param("previousTo") LocalDate previousTo,
+             @Param("from") LocalDate from, @Param("to") LocalDate to,
+             @Param("firstDay") LocalDate firstDay, @Param("lastDay") LocalDate lastDay);
+
+    /**
+     * Adds delta to every day between from and to, whatever their capacity, for bookings already decided elsewhere.
+     */
+    @Modifying
+    @Query("update DayCapacity d set d.booked = d.booked + :delta where d.day between :from and :to")
+    int add(@Param("from") LocalDate from, @Param("to") LocalDate to, @Param("delta") int delta);
+
+    /**
+     * Moves one spot from the days between previousFrom and previousTo to the days between from and to, whatever
+     * their capacity, for updates already decided elsewhere. Updates the span between firstDay and lastDay for the
+     * same reason as a move.
+     */
+    @Modifying
+    @Query("update DayCapacity d set d.booked = d.booked " +
+            "+ (case when d.day between :from and :to then 1 else 0 end) " +
+            "- (case when d.day between :previousFrom and :previousTo then 1 else 0 end) " +
+            "where d.day between :firstDay and :lastDay")
+    int shift(@Param("previousFrom") LocalDate previousFrom, @Param("previousTo") LocalDate previousTo,
+              @Param("from") LocalDate from, @Param("to") LocalDate to,
+              @Param("firstDay") LocalDate firstDay, @Param("lastDay") LocalDate lastDay);
+
+    @Modifying
+    @Query("update DayCapacity d set d.booked = :booked where d.day = :day")
+    int updateBooked(@Param("day") LocalDate day, @Param("booked") Integer booked);
+
+    @Modifying
+    @Query("update DayCapacity d set d.booked = d.booked - 1 where d.day between :from and :to and d.booked > 0")
+    int release(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    @Modifying
+    @Query("update DayCapacity d set d.maxReservations = :maxReservations where d.day >= :from")
+    int updateMaxReservations(@Param("from") LocalDate from, @Param("maxReservations") Integer maxReservations);
+}
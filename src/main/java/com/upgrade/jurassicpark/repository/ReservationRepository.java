@@ -2,20 +2,121 @@ package com.upgrade.jurassicpark.repository;
 
 import com.upgrade.jurassicpark.model.Reservation;
 import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ReservationRepository extends JpaRepository<Reservation, Long> {
 
     Reservation findByToken(String token);
 
-    List<Reservation> findAllByEmailAndReservationStatus(String email, ReservationStatus reservationStatus);
+    /**
+     * Reads the reservation and locks its row until the end of the current transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.id = :id")
+    Optional<Reservation> findByIdForUpdate(@Param("id") Long id);
 
-    Long countAllByArrivalDateIsLessThanEqualAndDepartureDateIsGreaterThanEqual(LocalDateTime from, LocalDateTime to);
+    /**
+     * Reads the reservation with the given token and locks its row until the end of the current transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.token = :token")
+    Optional<Reservation> findByTokenForUpdate(@Param("token") String token);
 
+    List<Reservation> findAllByReservationStatus(ReservationStatus reservationStatus);
+
+    @Query("select new com.upgrade.jurassicpark.model.ReservationSummary(r.id, r.token, r.name, r.email, r.arrivalDate, r.departureDate) " +
+            "from Reservation r where r.email = :email and r.reservationStatus = :reservationStatus order by r.id")
+    List<ReservationSummary> findAllByEmailAndReservationStatus(@Param("email") String email, @Param("reservationStatus") ReservationStatus reservationStatus);
+
+    /**
+     * Returns the reservations following the one with the given id, seeking straight to it instead of skipping an
+     * offset, so every page costs the same no matter how deep it is.
+     */
+    @Query("select new com.upgrade.jurassicpark.model.ReservationSummary(r.id, r.token, r.name, r.email, r.arrivalDate, r.departureDate) " +
+            "from Reservation r where r.email = :email and r.reservationStatus = :reservationStatus and r.id > :after order by r.id")
+    List<ReservationSummary> findAllByEmailAndReservationStatusAfter(@Param("email") String email, @Param("reservationStatus") ReservationStatus reservationStatus,
+                                                                    @Param("after") Long after, Pageable pageable);
+
+    /**
+     * Same as {@link #findAllByEmailAndReservationStatus} but read through a cursor, fetching rows in batches as the
+     * stream is consumed. Must be called within a transaction and closed after use.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.upgrade.jurassicpark.model.ReservationSummary(r.id, r.token, r.name, r.email, r.arrivalDate, r.departureDate) " +
+            "from Reservation r where r.email = :email and r.reservationStatus = :reservationStatus order by r.id")
+    Stream<ReservationSummary> streamAllByEmailAndReservationStatus(@Param("email") String email, @Param("reservationStatus") ReservationStatus reservationStatus);
+
+    /**
+     * Reads and locks the first reservations with the given status, to be archived.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.reservationStatus = :reservationStatus order by r.id")
+    List<Reservation> findAllByReservationStatusForUpdate(@Param("reservationStatus") ReservationStatus reservationStatus, Pageable pageable);
+
+    /**
+     * Reads and locks the first reservations whose stay ended before the given date, to be archived.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.departureDate < :endedBefore order by r.departureDate")
+    List<Reservation> findAllByDepartureDateBeforeForUpdate(@Param("endedBefore") LocalDateTime endedBefore, Pageable pageable);
+
+    @Modifying
+    @Query("delete from Reservation r where r.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
+
+    List<Reservation> findAllByReservationStatusInAndArrivalDateIsBeforeAndDepartureDateIsGreaterThanEqual(Collection<ReservationStatus> reservationStatuses, LocalDateTime to, LocalDateTime from);
+
+    /**
+     * Counts active reservations for every day between from and to (both inclusive), holds included as they take
+     * their days too. Every reservation overlapping the range is fetched once and its stay swept over a difference
+     * array, instead of counting each day with its own query.
+     */
+    default int[] countActiveReservationsPerDay(LocalDate from, LocalDate to) {
+        int length = (int) ChronoUnit.DAYS.between(from, to) + 1;
+        int[] difference = new int[length + 1];
+
+        List<Reservation> reservations = findAllByReservationStatusInAndArrivalDateIsBeforeAndDepartureDateIsGreaterThanEqual(
+                EnumSet.of(ReservationStatus.ACTIVE, ReservationStatus.HELD),
+                to.plusDays(1).atStartOfDay(),
+                from.atStartOfDay());
+
+        for (Reservation reservation : reservations) {
+            long arrival = ChronoUnit.DAYS.between(from, reservation.getArrivalDate().toLocalDate());
+            long departure = ChronoUnit.DAYS.between(from, reservation.getDepartureDate().toLocalDate());
+
+            difference[(int) Math.max(arrival, 0)]++;
+            difference[(int) Math.min(departure, length - 1) + 1]--;
+        }
+
+        int[] reservationsPerDay = new int[length];
+        int running = 0;
+
+        for (int i = 0; i < length; i++) {
+            running += difference[i];
+            reservationsPerDay[i] = running;
+        }
+
+        return reservationsPerDay;
+    }
 
 }
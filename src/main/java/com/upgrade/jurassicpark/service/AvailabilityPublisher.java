@@ -0,0 +1,369 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.exception.TooManySubscribersException;
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pushes the availability of the bookable horizon to subscribers as it changes, instead of having every client poll
+ * for it.
+ *
+ * Changes to the occupancy index wake a single publisher thread, which waits for the changes committing in the
+ * same window to pile up and then compares every day with what it published last. Only the days that differ are
+ * handed to the subscriptions, so a booking taken and given back within the window is never sent at all.
+ *
+ * Every subscription keeps the days it was not sent yet, the latest availability of each, and a pool of senders
+ * drains them one subscription at a time. A slow client only ever holds one availability per day, however many
+ * changes it misses, and never delays the others. Subscriptions that stay behind for longer than the maximum lag
+ * are ended, and clients reconnecting get a fresh snapshot.
+ */
+@Component
+public class AvailabilityPublisher {
+
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final OccupancyIndex occupancyIndex;
+
+    private final int maxReservationsPerDay;
+
+    private final int maxSubscribers;
+
+    private final long coalesceNanos;
+
+    private final long maxLagNanos;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final ExecutorService senders;
+
+    private final Thread publisher;
+
+    private volatile boolean changed;
+
+    private volatile boolean running;
+
+    // Only read and written by the publisher thread
+    private TreeMap<LocalDate, Integer> published = new TreeMap<>();
+
+    @Autowired
+    public AvailabilityPublisher(OccupancyIndex occupancyIndex,
+                                 @Value("${jurassic-world.max-reservations-per-day}") int maxReservationsPerDay,
+                                 @Value("${jurassic-world.availability-stream-max-subscribers:10000}") int maxSubscribers,
+                                 @Value("${jurassic-world.availability-stream-coalesce-ms:250}") long coalesceMillis,
+                                 @Value("${jurassic-world.availability-stream-max-lag-ms:10000}") long maxLagMillis) {
+        this.occupancyIndex = occupancyIndex;
+        this.maxReservationsPerDay = maxReservationsPerDay;
+        this.maxSubscribers = maxSubscribers;
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+
+        AtomicInteger senderCount = new AtomicInteger();
+
+        this.senders = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread sender = new Thread(runnable, "availability-sender-" + senderCount.incrementAndGet());
+            sender.setDaemon(true);
+            return sender;
+        });
+
+        this.publisher = new Thread(this::run, "availability-publisher");
+        this.publisher.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        published = counts();
+        running = true;
+
+        occupancyIndex.addListener(this::signal);
+        publisher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(publisher);
+        publisher.join();
+
+        subscriptions.forEach(Subscription::end);
+        senders.shutdownNow();
+    }
+
+    /**
+     * Subscribes to the availability of the days between from and to (both inclusive). The subscriber first gets a
+     * snapshot of the whole range, and then only the days that changed. Days outside the bookable horizon are part
+     * of the snapshot but never change.
+     */
+    public Subscription subscribe(LocalDate from, LocalDate to, AvailabilitySubscriber subscriber) throws TooManySubscribersException {
+        Subscription subscription = new Subscription(from, to, subscriber);
+        int count;
+
+        // The slot is taken before subscribing, so subscribers arriving together never go past the cap
+        do {
+            count = subscriberCount.get();
+
+            if (count >= maxSubscribers) {
+                throw new TooManySubscribersException(maxSubscribers);
+            }
+        } while (!subscriberCount.compareAndSet(count, count + 1));
+
+        subscriptions.add(subscription);
+        subscription.schedule();
+
+        return subscription;
+    }
+
+    int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void signal() {
+        // Cheap enough for the booking threads, which call it on every change
+        if (!changed) {
+            changed = true;
+            LockSupport.unpark(publisher);
+        }
+    }
+
+    private void run() {
+        long lastHeartbeat = System.nanoTime();
+
+        while (running) {
+            // Woken up at least once per lag period, so a stuck subscriber is dropped even when nothing changes
+            LockSupport.parkNanos(this, Math.min(HEARTBEAT_NANOS, maxLagNanos));
+
+            if (!running) {
+                return;
+            }
+
+            if (changed) {
+                // Changes committing within the window are published together
+                LockSupport.parkNanos(this, coalesceNanos);
+                changed = false;
+
+                publishChanges();
+            }
+
+            long now = System.nanoTime();
+
+            if (now - lastHeartbeat >= HEARTBEAT_NANOS) {
+                subscriptions.forEach(Subscription::heartbeat);
+                lastHeartbeat = now;
+            }
+
+            subscriptions.stream()
+                    .filter(subscription -> subscription.isBehind(now))
+                    .forEach(Subscription::end);
+        }
+    }
+
+    private void publishChanges() {
+        TreeMap<LocalDate, Integer> current = counts();
+        List<Day> changedDays = new ArrayList<>();
+
+        current.forEach((day, reservations) -> {
+            if (!reservations.equals(published.get(day))) {
+                changedDays.add(new Day(day, (long) reservations, maxReservationsPerDay));
+            }
+        });
+
+        published = current;
+
+        if (!changedDays.isEmpty()) {
+            subscriptions.forEach(subscription -> subscription.offer(changedDays));
+        }
+    }
+
+    private TreeMap<LocalDate, Integer> counts() {
+        LocalDate today = LocalDate.now();
+        int[] reservationsPerDay = occupancyIndex.reservationsBetween(today, today.plusDays(OccupancyIndex.HORIZON_DAYS - 1));
+        TreeMap<LocalDate, Integer> counts = new TreeMap<>();
+
+        for (int i = 0; i < reservationsPerDay.length; i++) {
+            counts.put(today.plusDays(i), reservationsPerDay[i]);
+        }
+
+        return counts;
+    }
+
+    private Calendar calendar(LocalDate from, LocalDate to) {
+        int[] reservationsPerDay = from.isAfter(to) ? new int[0] : occupancyIndex.reservationsBetween(from, to);
+
+        return new Calendar(from, reservationsPerDay, maxReservationsPerDay);
+    }
+
+    /**
+     * Availability waiting to be sent to one subscriber, sent by at most one sender at a time.
+     */
+    public class Subscription {
+
+        private final LocalDate from;
+
+        private final LocalDate to;
+
+        private final AvailabilitySubscriber subscriber;
+
+        // Guarded by this subscription
+        private final TreeMap<LocalDate, Day> pending = new TreeMap<>();
+
+        private boolean snapshotPending = true;
+
+        private boolean heartbeatPending;
+
+        private boolean sending;
+
+        private long waitingSince;
+
+        private long sendingSince;
+
+        private boolean cancelled;
+
+        private boolean ended;
+
+        private Subscription(LocalDate from, LocalDate to, AvailabilitySubscriber subscriber) {
+            this.from = from;
+            this.to = to;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Stops sending to the subscriber, once the call in progress returns if any.
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+            }
+
+            if (subscriptions.remove(this)) {
+                subscriberCount.decrementAndGet();
+            }
+        }
+
+        private synchronized void offer(List<Day> days) {
+            for (Day day : days) {
+                if (!day.getDate().isBefore(from) && !day.getDate().isAfter(to)) {
+                    pending.put(day.getDate(), day);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private synchronized void heartbeat() {
+            if (!sending && waitingSince == 0) {
+                heartbeatPending = true;
+                schedule();
+            }
+        }
+
+        private synchronized void schedule() {
+            if (waitingSince == 0) {
+                waitingSince = System.nanoTime();
+            }
+
+            if (!sending && !cancelled) {
+                sending = true;
+                senders.execute(this::send);
+            }
+        }
+
+        private synchronized boolean isBehind(long now) {
+            return (waitingSince != 0 && now - waitingSince > maxLagNanos) || (sendingSince != 0 && now - sendingSince > maxLagNanos);
+        }
+
+        /**
+         * Ends the subscription on behalf of the publisher, telling the subscriber right away unless a call to it is
+         * still in progress, in which case the sender tells it once that call returns.
+         */
+        private void end() {
+            boolean idle;
+
+            synchronized (this) {
+                ended = true;
+                idle = !sending;
+            }
+
+            cancel();
+
+            if (idle) {
+                subscriber.closed();
+            }
+        }
+
+        private void send() {
+            while (true) {
+                boolean snapshot;
+                List<Day> days;
+
+                synchronized (this) {
+                    if (cancelled || (!snapshotPending && pending.isEmpty() && !heartbeatPending)) {
+                        sending = false;
+                        sendingSince = 0;
+                        waitingSince = 0;
+                        break;
+                    }
+
+                    // The snapshot is read after the pending days are dropped, so it is at least as recent as them
+                    snapshot = snapshotPending;
+                    days = new ArrayList<>(pending.values());
+
+                    pending.clear();
+                    snapshotPending = false;
+                    heartbeatPending = false;
+                    waitingSince = 0;
+                    sendingSince = System.nanoTime();
+                }
+
+                try {
+                    if (snapshot) {
+                        subscriber.snapshot(calendar(from, to));
+                    } else if (!days.isEmpty()) {
+                        subscriber.changed(days);
+                    } else {
+                        subscriber.heartbeat();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // The client went away
+                    synchronized (this) {
+                        sending = false;
+                        sendingSince = 0;
+                    }
+
+                    cancel();
+                    return;
+                }
+            }
+
+            boolean notify;
+
+            synchronized (this) {
+                notify = ended;
+            }
+
+            if (notify) {
+                subscriber.closed();
+            }
+        }
+    }
+}
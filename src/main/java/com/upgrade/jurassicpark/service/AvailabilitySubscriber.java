@@ -0,0 +1,35 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the availability of a range of days from the {@link AvailabilityPublisher}, one call at a time. Calls may
+ * block while the client catches up, failing one ends the subscription.
+ */
+public interface AvailabilitySubscriber {
+
+    /**
+     * First call of every subscription, with the availability of every day of the range.
+     */
+    void snapshot(Calendar calendar) throws IOException;
+
+    /**
+     * The days of the range whose availability changed since the previous call, with their new availability.
+     */
+    void changed(List<Day> days) throws IOException;
+
+    /**
+     * Sent after a while without changes, so connections that went away are noticed.
+     */
+    void heartbeat() throws IOException;
+
+    /**
+     * The subscription was ended by the publisher, because the subscriber fell too far behind or the application
+     * is stopping.
+     */
+    void closed();
+}
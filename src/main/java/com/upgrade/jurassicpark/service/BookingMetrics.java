@@ -0,0 +1,128 @@
+package com.upgrade.jurassicpark.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timers for each phase of a booking, counters of rejected bookings by reason, gauges of the bookings waiting for
+ * their turn and the sizes of the sequencer's batches, published through the application's meter registry.
+ *
+ * Waiting covers the day locks in the locking mode, the queue in the sequencer mode and the day rows in the database
+ * mode. The database claims and checks the days in the same statement, so that mode reports its waits as part of the
+ * capacity check.
+ *
+ * Contexts without a meter registry, such as slices of the application started by tests, keep the metrics in memory.
+ */
+@Component
+public class BookingMetrics {
+
+    static final String PHASE_TIMER = "jurassicpark.booking.phase";
+
+    static final String REJECTION_COUNTER = "jurassicpark.booking.rejections";
+
+    static final String WAITING_GAUGE = "jurassicpark.booking.waiting";
+
+    static final String BATCH_SIZE_SUMMARY = "jurassicpark.booking.sequencer.batch.size";
+
+    enum Phase {
+        VALIDATION, LOCK_WAIT, CAPACITY_CHECK, INSERT, TOTAL
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile BookingSequencer bookingSequencer;
+
+    @Autowired
+    public BookingMetrics(ObjectProvider<MeterRegistry> meterRegistry, ReservationCache reservationCache) {
+        this(meterRegistry.getIfAvailable(SimpleMeterRegistry::new), reservationCache);
+    }
+
+    BookingMetrics(MeterRegistry meterRegistry, ReservationCache reservationCache) {
+        this.meterRegistry = meterRegistry;
+
+        for (Phase phase : Phase.values()) {
+            timers.put(phase, Timer.builder(PHASE_TIMER)
+                    .description("Time spent by bookings in each phase")
+                    .tag("phase", phase.name().toLowerCase().replace('_', '-'))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+
+        Gauge.builder(WAITING_GAUGE, this, BookingMetrics::getWaiting)
+                .description("Bookings waiting for a lock, the sequencer or the database before their days are checked")
+                .register(meterRegistry);
+
+        FunctionCounter.builder("jurassicpark.token.cache.hits", reservationCache, ReservationCache::getHits).register(meterRegistry);
+        FunctionCounter.builder("jurassicpark.token.cache.misses", reservationCache, ReservationCache::getMisses).register(meterRegistry);
+        FunctionCounter.builder("jurassicpark.token.cache.evictions", reservationCache, ReservationCache::getEvictions).register(meterRegistry);
+    }
+
+    MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    void bind(BookingSequencer bookingSequencer) {
+        this.bookingSequencer = bookingSequencer;
+
+        Gauge.builder("jurassicpark.booking.sequencer.queue.depth", bookingSequencer, BookingSequencer::getQueueDepth)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Size of every batch the sequencer commits together, so group commit shows in the count, mean and percentiles
+     * of all batches rather than in whichever one finished last.
+     */
+    DistributionSummary batchSizes() {
+        return DistributionSummary.builder(BATCH_SIZE_SUMMARY)
+                .description("Bookings decided and committed together by the sequencer")
+                .baseUnit("bookings")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records the time elapsed in a phase that started at the given {@link System#nanoTime()}.
+     */
+    void record(Phase phase, long startedAt) {
+        timers.get(phase).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    void rejected(Exception reason) {
+        Counter.builder(REJECTION_COUNTER)
+                .description("Bookings rejected, by the exception explaining why")
+                .tag("exception", reason.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    int getWaiting() {
+        BookingSequencer sequencer = bookingSequencer;
+
+        return waiting.get() + (sequencer == null ? 0 : sequencer.getQueueDepth());
+    }
+
+    void startWaiting() {
+        waiting.incrementAndGet();
+    }
+
+    void stopWaiting() {
+        waiting.decrementAndGet();
+    }
+}
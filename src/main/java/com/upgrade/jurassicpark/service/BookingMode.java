@@ -0,0 +1,19 @@
+package com.upgrade.jurassicpark.service;
+
+/**
+ * How {@link ReservationServiceImpl#save} guards the per-day capacity, set with 'jurassic-world.booking-mode'.
+ */
+public enum BookingMode {
+
+    // Locks the days of the stay, checks capacity and then claims it
+    LOCKING,
+
+    // Claims every day of the stay with compare-and-set and rolls back on the first full day, holding no lock
+    LOCK_FREE,
+
+    // Claims the stay in the day_capacity table within the insert transaction, safe across several instances
+    DATABASE,
+
+    // Hands the stay to a single writer thread that books waiting reservations in batches, one transaction per batch
+    SEQUENCER
+}
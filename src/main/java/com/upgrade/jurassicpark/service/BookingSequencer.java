@@ -0,0 +1,169 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import io.micrometer.core.instrument.DistributionSummary;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands bookings from request threads to a single writer thread through a bounded queue. The writer takes every
+ * booking waiting in the queue at once, up to a batch size, and passes them to the batch handler, which decides and
+ * commits them together. Request threads block while the queue is full, which pushes back on callers instead of
+ * letting the backlog grow.
+ */
+class BookingSequencer {
+
+    private final BlockingQueue<PendingBooking> queue;
+
+    private final int maxBatchSize;
+
+    private final Consumer<List<PendingBooking>> batchHandler;
+
+    private final DistributionSummary batchSizes;
+
+    private final Thread writer;
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong bookings = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    BookingSequencer(int queueSize, int maxBatchSize, Consumer<List<PendingBooking>> batchHandler, DistributionSummary batchSizes) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxBatchSize = maxBatchSize;
+        this.batchHandler = batchHandler;
+        this.batchSizes = batchSizes;
+        this.writer = new Thread(this::run, "booking-sequencer");
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Stops taking bookings and waits for the writer to finish the ones already queued. Bookings it could not get to
+     * in time are failed, so no caller is left waiting.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+
+        List<PendingBooking> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        abandoned.forEach(booking -> booking.future.completeExceptionally(new IllegalStateException("Booking sequencer stopped before booking it")));
+    }
+
+    CompletableFuture<Reservation> submit(Reservation reservation, LocalDate startDate, LocalDate endDate) {
+        PendingBooking booking = new PendingBooking(reservation, startDate, endDate);
+
+        if (!running) {
+            booking.future.completeExceptionally(new IllegalStateException("Booking sequencer is stopped"));
+            return booking.future;
+        }
+
+        try {
+            queue.put(booking);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            booking.future.completeExceptionally(e);
+            return booking.future;
+        }
+
+        // Stopped while queueing: the writer may already have made its last check of the queue. Whoever takes the
+        // booking out of it answers it, this thread, the writer or the drain of stop()
+        if (!running && queue.remove(booking)) {
+            booking.future.completeExceptionally(new IllegalStateException("Booking sequencer is stopped"));
+        }
+
+        return booking.future;
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    long getBatchCount() {
+        return batches.get();
+    }
+
+    long getBookingCount() {
+        return bookings.get();
+    }
+
+    private void run() {
+        List<PendingBooking> batch = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingBooking first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+
+                batchHandler.accept(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                // Never leave a caller waiting, whatever the handler did
+                batch.forEach(booking -> booking.future.completeExceptionally(e));
+            }
+
+            if (!batch.isEmpty()) {
+                batchSizes.record(batch.size());
+                batches.incrementAndGet();
+                bookings.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    static final class PendingBooking {
+
+        private final Reservation reservation;
+        private final LocalDate startDate;
+        private final LocalDate endDate;
+        private final CompletableFuture<Reservation> future = new CompletableFuture<>();
+        private final long submittedAt = System.nanoTime();
+
+        PendingBooking(Reservation reservation, LocalDate startDate, LocalDate endDate) {
+            this.reservation = reservation;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        Reservation getReservation() {
+            return reservation;
+        }
+
+        LocalDate getStartDate() {
+            return startDate;
+        }
+
+        LocalDate getEndDate() {
+            return endDate;
+        }
+
+        CompletableFuture<Reservation> getFuture() {
+            return future;
+        }
+
+        long getSubmittedAt() {
+            return submittedAt;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.upgrade.jurassicpark.service;
+
+import java.time.LocalDate;
+
+/**
+ * Arrivals the park takes bookings for: from the day after tomorrow to less than a month ahead.
+ *
+ * Anything booking against the park, the benchmarks and the load generator included, takes its dates from here
+ * so they never drift from what a booking is checked against.
+ */
+public final class BookingWindow {
+
+    private BookingWindow() {
+    }
+
+    /**
+     * Earliest arrival a booking made on the given day is accepted for, anything sooner is too late.
+     */
+    public static LocalDate firstArrival(LocalDate today) {
+        return today.plusDays(2);
+    }
+
+    /**
+     * Latest arrival a booking made on the given day is accepted for, anything later is a month or more ahead.
+     */
+    public static LocalDate lastArrival(LocalDate today) {
+        LocalDate lastArrival = today.plusMonths(1);
+
+        while (!lastArrival.minusMonths(1).isBefore(today)) {
+            lastArrival = lastArrival.minusDays(1);
+        }
+
+        return lastArrival;
+    }
+}
@@ -0,0 +1,86 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Calendar;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of computed calendars keyed by their date range. Every entry remembers the inventory version it was
+ * computed at and is only served while that version is still current, so a booking or cancellation invalidates all
+ * entries at once without touching them.
+ *
+ * Reads never take a lock. Outdated entries cost nothing but their slot, so once full the cache simply drops any
+ * range to make room rather than keeping a strict least recently used order every read would have to update.
+ */
+class CalendarCache {
+
+    private final int maxEntries;
+
+    private final ConcurrentMap<Range, Versioned> entries = new ConcurrentHashMap<>();
+
+    CalendarCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    Calendar get(LocalDate from, LocalDate to, long version) {
+        Versioned entry = entries.get(new Range(from, to));
+        return entry != null && entry.version == version ? entry.calendar : null;
+    }
+
+    void put(LocalDate from, LocalDate to, long version, Calendar calendar) {
+        Range range = new Range(from, to);
+
+        if (!entries.containsKey(range)) {
+            Iterator<Range> ranges = entries.keySet().iterator();
+
+            // Concurrent puts may overshoot the bound by a few entries, the next ones bring it back
+            while (entries.size() >= maxEntries && ranges.hasNext()) {
+                ranges.next();
+                ranges.remove();
+            }
+        }
+
+        // A calendar computed at an older version never replaces a newer one put meanwhile
+        entries.merge(range, new Versioned(version, calendar), (current, computed) -> computed.version >= current.version ? computed : current);
+    }
+
+    private static final class Range {
+
+        private final LocalDate from;
+        private final LocalDate to;
+
+        Range(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Range range = (Range) o;
+            return Objects.equals(from, range.from) &&
+                    Objects.equals(to, range.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(from, to);
+        }
+    }
+
+    private static final class Versioned {
+
+        private final long version;
+        private final Calendar calendar;
+
+        Versioned(long version, Calendar calendar) {
+            this.version = version;
+            this.calendar = calendar;
+        }
+    }
+}
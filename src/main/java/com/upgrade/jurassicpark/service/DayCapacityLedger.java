@@ -0,0 +1,294 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.DayCapacity;
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Booked count per day kept in the day_capacity table, so every application instance sharing the database
+ * enforces the same capacity without a JVM lock.
+ *
+ * A stay is claimed with one conditional update that either increments all of its days or none of them, and it
+ * has to run in the same transaction as the reservation insert. The other booking modes decide capacity in memory
+ * and record their bookings here in the same transaction, so the table is a materialized count of active
+ * reservations per day in every mode. A scheduled job checks it against the reservation table.
+ */
+@Component
+public class DayCapacityLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(DayCapacityLedger.class);
+
+    @Value("${jurassic-world.max-reservations-per-day}")
+    private Integer maxReservationsPerDay;
+
+    private final DayCapacityRepository dayCapacityRepository;
+
+    private final ReservationRepository reservationRepository;
+
+    private final TransactionTemplate provisioningTransaction;
+
+    private volatile LocalDate provisionedUntil = LocalDate.MIN;
+
+    @Autowired
+    public DayCapacityLedger(DayCapacityRepository dayCapacityRepository, ReservationRepository reservationRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.dayCapacityRepository = dayCapacityRepository;
+        this.reservationRepository = reservationRepository;
+        this.provisioningTransaction = new TransactionTemplate(transactionManager);
+        this.provisioningTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    @Scheduled(cron = "0 0 0 * * *")
+    public void provision() {
+        LocalDate today = LocalDate.now();
+        LocalDate lastDay = today.plusDays(OccupancyIndex.HORIZON_DAYS - 1);
+
+        provision(today, lastDay);
+        provisioningTransaction.execute(status -> dayCapacityRepository.updateMaxReservations(today, maxReservationsPerDay));
+
+        provisionedUntil = lastDay;
+    }
+
+    /**
+     * Checks the bookable horizon against the reservation table and corrects the days that drifted from it.
+     */
+    @Scheduled(cron = "${jurassic-world.day-capacity-reconcile-cron:0 30 * * * *}")
+    public void reconcile() {
+        LocalDate today = LocalDate.now();
+        List<LocalDate> correctedDays = reconcile(today, today.plusDays(OccupancyIndex.HORIZON_DAYS - 1));
+
+        if (!correctedDays.isEmpty()) {
+            log.warn("Corrected the booked count of {} day(s) that did not match the reservations: {}", correctedDays.size(), correctedDays);
+        }
+    }
+
+    /**
+     * Sets the booked count of every day between from and to to its number of active reservations, returning the
+     * days that had to be corrected. The days are locked before the reservations are counted, so bookings committing
+     * meanwhile are either counted or wait and apply their change on top of the corrected count.
+     */
+    public List<LocalDate> reconcile(LocalDate from, LocalDate to) {
+        return provisioningTransaction.execute(status -> {
+            Map<LocalDate, DayCapacity> stored = dayCapacityRepository.findAllByDayBetweenForUpdate(from, to).stream()
+                    .collect(Collectors.toMap(DayCapacity::getDay, dayCapacity -> dayCapacity));
+
+            int[] reservationsPerDay = reservationRepository.countActiveReservationsPerDay(from, to);
+            List<LocalDate> correctedDays = new ArrayList<>();
+            List<DayCapacity> missing = new ArrayList<>();
+
+            for (int i = 0; i < reservationsPerDay.length; i++) {
+                LocalDate day = from.plusDays(i);
+                DayCapacity dayCapacity = stored.get(day);
+
+                if (dayCapacity == null && reservationsPerDay[i] > 0) {
+                    missing.add(new DayCapacity(day, reservationsPerDay[i], maxReservationsPerDay));
+                    correctedDays.add(day);
+                } else if (dayCapacity != null && dayCapacity.getBooked() != reservationsPerDay[i]) {
+                    dayCapacityRepository.updateBooked(day, reservationsPerDay[i]);
+                    correctedDays.add(day);
+                }
+            }
+
+            dayCapacityRepository.saveAll(missing);
+
+            return correctedDays;
+        });
+    }
+
+    /**
+     * Claims one spot on every day between from and to (both inclusive). Returns an empty list when the whole stay
+     * was claimed, or the full days otherwise, in which case nothing was changed.
+     */
+    public List<LocalDate> claim(LocalDate from, LocalDate to) {
+        ensureProvisioned(from, to);
+
+        int days = (int) ChronoUnit.DAYS.between(from, to) + 1;
+        int claimed = dayCapacityRepository.claim(from, to);
+
+        if (claimed == days) {
+            return Collections.emptyList();
+        }
+
+        if (claimed > 0) {
+            // A day went missing, or filled up while the statement ran: the not exists check passed, but another
+            // claim committed before that day's row was updated and booked < max skipped it. Either way the stay
+            // is only partly claimed, so the surrounding transaction must roll back
+            throw new ConcurrencyFailureException("Could only claim " + claimed + " of " + days + " days from " + from);
+        }
+
+        return fullDays(from, to, null, null);
+    }
+
+    /**
+     * Claims like {@link #claim}, but locks the days of the stay first, so the claim cannot come back partial and
+     * leave the surrounding transaction to roll back. Batches claim with it, where one contended stay must not undo
+     * the others booked with it. Throws ConcurrencyFailureException, with nothing claimed, when a day of the stay
+     * has no row to lock.
+     */
+    public List<LocalDate> claimLocked(LocalDate from, LocalDate to) {
+        ensureProvisioned(from, to);
+
+        int days = (int) ChronoUnit.DAYS.between(from, to) + 1;
+
+        // Adding nothing locks the rows in day order, like the claim would, and counts them without loading entities
+        int locked = dayCapacityRepository.add(from, to, 0);
+
+        if (locked < days) {
+            throw new ConcurrencyFailureException("Only " + locked + " of " + days + " days from " + from + " can be claimed");
+        }
+
+        return claim(from, to);
+    }
+
+    /**
+     * Moves the spot held between previousFrom and previousTo to the days between from and to, claiming only the
+     * days the stay gains and releasing only the days it loses. Returns the full days among the gained ones when it
+     * could not, in which case nothing was changed.
+     *
+     * Done with a single statement, which locks the days of both ranges in day order. Claiming and releasing them
+     * with one statement each could leave two moves each holding a day the other one waits for.
+     */
+    public List<LocalDate> move(LocalDate previousFrom, LocalDate previousTo, LocalDate from, LocalDate to) {
+        LocalDate firstDay = min(previousFrom, from);
+        LocalDate lastDay = max(previousTo, to);
+
+        ensureProvisioned(firstDay, lastDay);
+        int days = (int) ChronoUnit.DAYS.between(firstDay, lastDay) + 1;
+
+        int moved = dayCapacityRepository.move(previousFrom, previousTo, from, to, firstDay, lastDay);
+
+        if (moved == days) {
+            return Collections.emptyList();
+        }
+
+        if (moved > 0) {
+            // A day went missing, or the not exists check saw a gained day filling up only for some of the rows it
+            // was evaluated for. Either way the stay is only partly moved, so the surrounding transaction must roll back
+            throw new ConcurrencyFailureException("Could only move " + moved + " of " + days + " days to " + from);
+        }
+
+        return fullDays(from, to, previousFrom, previousTo);
+    }
+
+    /**
+     * Records a stay between from and to whose capacity was already checked elsewhere.
+     */
+    public void add(LocalDate from, LocalDate to) {
+        ensureProvisioned(from, to);
+
+        dayCapacityRepository.add(from, to, 1);
+    }
+
+    /**
+     * Records a stay moving from the days between previousFrom and previousTo to the days between from and to,
+     * whose capacity was already checked elsewhere. Done with a single statement for the same reason as a move.
+     */
+    public void shift(LocalDate previousFrom, LocalDate previousTo, LocalDate from, LocalDate to) {
+        LocalDate firstDay = min(previousFrom, from);
+        LocalDate lastDay = max(previousTo, to);
+
+        ensureProvisioned(firstDay, lastDay);
+
+        dayCapacityRepository.shift(previousFrom, previousTo, from, to, firstDay, lastDay);
+    }
+
+    public void release(LocalDate from, LocalDate to) {
+        dayCapacityRepository.release(from, to);
+    }
+
+    private void ensureProvisioned(LocalDate from, LocalDate to) {
+        if (to.isAfter(provisionedUntil)) {
+            provision(from, to);
+
+            if (!from.isAfter(provisionedUntil.plusDays(1))) {
+                provisionedUntil = to;
+            }
+        }
+    }
+
+    /**
+     * Full days between from and to, leaving out the ones between heldFrom and heldTo when given, or every day of
+     * the range when none is full any more.
+     */
+    private List<LocalDate> fullDays(LocalDate from, LocalDate to, LocalDate heldFrom, LocalDate heldTo) {
+        List<LocalDate> fullDays = dayCapacityRepository.findAllByDayBetweenOrderByDay(from, to).stream()
+                .filter(dayCapacity -> heldFrom == null || dayCapacity.getDay().isBefore(heldFrom) || dayCapacity.getDay().isAfter(heldTo))
+                .filter(dayCapacity -> dayCapacity.getBooked() >= dayCapacity.getMaxReservations())
+                .map(DayCapacity::getDay)
+                .collect(Collectors.toList());
+
+        return fullDays.isEmpty() ? datesBetween(from, to) : fullDays;
+    }
+
+    /**
+     * Inserts the rows missing between from and to, seeded from the active reservations. Runs in its own
+     * transaction so concurrent instances provisioning the same days simply lose the race instead of failing a
+     * booking.
+     */
+    private synchronized void provision(LocalDate from, LocalDate to) {
+        try {
+            provisioningTransaction.execute(status -> {
+                Set<LocalDate> provisioned = dayCapacityRepository.findAllByDayBetweenOrderByDay(from, to).stream()
+                        .map(DayCapacity::getDay)
+                        .collect(Collectors.toSet());
+
+                List<DayCapacity> missing = new ArrayList<>();
+                int[] reservationsPerDay = null;
+
+                for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                    if (!provisioned.contains(day)) {
+                        if (reservationsPerDay == null) {
+                            reservationsPerDay = reservationRepository.countActiveReservationsPerDay(from, to);
+                        }
+
+                        missing.add(new DayCapacity(day, reservationsPerDay[(int) ChronoUnit.DAYS.between(from, day)], maxReservationsPerDay));
+                    }
+                }
+
+                return dayCapacityRepository.saveAll(missing);
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Another instance inserted the same days first
+        }
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static List<LocalDate> datesBetween(LocalDate from, LocalDate to) {
+        List<LocalDate> dates = new ArrayList<>();
+
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            dates.add(day);
+        }
+
+        return dates;
+    }
+}
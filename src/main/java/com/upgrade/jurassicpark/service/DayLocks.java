@@ -0,0 +1,50 @@
+package com.upgrade.jurassicpark.service;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock stripes keyed by epoch day, so bookings whose stays do not share a day never wait on each other.
+ *
+ * Stripes for a range are always taken in ascending stripe order, which keeps two bookings from deadlocking
+ * even when their ranges wrap around the stripe array.
+ */
+class DayLocks {
+
+    private final ReentrantLock[] stripes;
+
+    DayLocks(int stripeCount) {
+        stripes = new ReentrantLock[stripeCount];
+
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    void lock(LocalDate from, LocalDate to) {
+        BitSet stripesInRange = stripesFor(from, to);
+
+        for (int i = stripesInRange.nextSetBit(0); i >= 0; i = stripesInRange.nextSetBit(i + 1)) {
+            stripes[i].lock();
+        }
+    }
+
+    void unlock(LocalDate from, LocalDate to) {
+        BitSet stripesInRange = stripesFor(from, to);
+
+        for (int i = stripesInRange.previousSetBit(stripes.length - 1); i >= 0; i = stripesInRange.previousSetBit(i - 1)) {
+            stripes[i].unlock();
+        }
+    }
+
+    private BitSet stripesFor(LocalDate from, LocalDate to) {
+        BitSet stripesInRange = new BitSet(stripes.length);
+
+        for (long day = from.toEpochDay(); day <= to.toEpochDay() && stripesInRange.cardinality() < stripes.length; day++) {
+            stripesInRange.set((int) Math.floorMod(day, (long) stripes.length));
+        }
+
+        return stripesInRange;
+    }
+}
@@ -0,0 +1,193 @@
+package com.upgrade.jurassicpark.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks once their delay elapsed, with a hashed timing wheel: a ring of buckets that a single thread visits one
+ * per tick. Scheduling and cancelling a task cost the same however many are waiting, instead of a scheduled task or
+ * a heap entry each, and no thread wakes up for a task before its tick comes.
+ *
+ * Tasks are placed in the bucket of the tick they are due in, along with the number of full turns of the wheel left
+ * before then, and handed to the wheel's executor up to one tick late. The wheel's thread only keeps the buckets, so
+ * a slow task never holds back the next tick. Cancelled tasks stay in their bucket until it is visited and are
+ * dropped then.
+ */
+class HashedTimingWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final long tickNanos;
+
+    private final List<List<Timeout>> buckets;
+
+    private final int mask;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final Executor executor;
+
+    private final Thread worker;
+
+    private volatile boolean running;
+
+    private volatile long startedAt;
+
+    // Only read and written by the worker
+    private long tick;
+
+    HashedTimingWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor) {
+        if (Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("Ticks per wheel must be a power of two: " + ticksPerWheel);
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new ArrayList<>(ticksPerWheel);
+        this.mask = ticksPerWheel - 1;
+        this.executor = executor;
+
+        for (int i = 0; i < ticksPerWheel; i++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    void start() {
+        startedAt = System.nanoTime();
+        running = true;
+        worker.start();
+    }
+
+    /**
+     * Stops the wheel, dropping every task that did not run yet.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join();
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(delay, 0)));
+
+        // Handed over to the worker, which is the only one touching the buckets
+        scheduled.add(timeout);
+
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startedAt + (tick + 1) * tickNanos;
+            long remaining;
+
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            if (!running) {
+                return;
+            }
+
+            transferScheduled();
+            expire(buckets.get((int) (tick & mask)));
+
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            // Already due tasks go in the current bucket, which is visited right after
+            long dueTick = Math.max((timeout.deadline - startedAt) / tickNanos, tick);
+
+            timeout.remainingRounds = (dueTick - tick) / buckets.size();
+            buckets.get((int) (dueTick & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        List<Timeout> due = new ArrayList<>();
+        int kept = 0;
+
+        for (Timeout timeout : bucket) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+            } else {
+                due.add(timeout);
+            }
+        }
+
+        bucket.subList(kept, bucket.size()).clear();
+
+        for (Timeout timeout : due) {
+            try {
+                executor.execute(() -> runTask(timeout));
+            } catch (RejectedExecutionException e) {
+                log.warn("Task scheduled on the {} wheel was dropped, its executor is shut down", worker.getName());
+            }
+        }
+    }
+
+    private void runTask(Timeout timeout) {
+        // Cancelled while waiting for the executor
+        if (timeout.cancelled) {
+            return;
+        }
+
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            log.error("Task scheduled on the {} wheel failed", worker.getName(), e);
+        }
+    }
+
+    static final class Timeout {
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        private volatile boolean cancelled;
+
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Keeps the task from running, unless it is already running.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
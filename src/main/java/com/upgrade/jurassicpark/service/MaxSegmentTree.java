@@ -0,0 +1,75 @@
+package com.upgrade.jurassicpark.service;
+
+import java.util.Arrays;
+
+/**
+ * Segment tree keeping the maximum of every power of two aligned range of an array of ints, so updating a value and
+ * finding the first value above a threshold from a given index both cost O(log n) instead of a scan.
+ *
+ * Not thread safe, callers guard it.
+ */
+class MaxSegmentTree {
+
+    private final int size;
+
+    private final int leaves;
+
+    // Node i covers its children 2i and 2i + 1, leaves start at index leaves
+    private final int[] tree;
+
+    MaxSegmentTree(int size) {
+        this.size = size;
+        this.leaves = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        this.tree = new int[2 * leaves];
+
+        // Padding past the end is above any threshold, so searches stop there
+        Arrays.fill(tree, leaves + size, tree.length, Integer.MAX_VALUE);
+
+        for (int node = leaves - 1; node > 0; node--) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void set(int index, int value) {
+        int node = leaves + index;
+        tree[node] = value;
+
+        for (node >>>= 1; node > 0; node >>>= 1) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    int get(int index) {
+        return tree[leaves + index];
+    }
+
+    /**
+     * Returns the first index from the given one whose value is above the threshold, or size when there is none.
+     */
+    int firstAbove(int from, int threshold) {
+        if (from >= size) {
+            return size;
+        }
+
+        return Math.min(firstAbove(1, 0, leaves - 1, from, threshold), size);
+    }
+
+    private int firstAbove(int node, int low, int high, int from, int threshold) {
+        if (high < from || tree[node] <= threshold) {
+            return Integer.MAX_VALUE;
+        }
+
+        if (low == high) {
+            return low;
+        }
+
+        int middle = (low + high) >>> 1;
+        int left = firstAbove(2 * node, low, middle, from, threshold);
+
+        return left != Integer.MAX_VALUE ? left : firstAbove(2 * node + 1, middle + 1, high, from, threshold);
+    }
+}
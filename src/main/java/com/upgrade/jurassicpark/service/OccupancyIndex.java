@@ -0,0 +1,494 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory count of active reservations per day over the bookable horizon.
+ *
+ * Counters live in a ring keyed by epoch day, so rolling forward at midnight only resets the slot of the day
+ * that just left the horizon. Counts are loaded from the day_capacity table, and days outside the horizon are answered
+ * from it with a single range scan, so neither a restart nor a long range scans the reservations.
+ * Counters are updated without locking, so readers and bookings for different days never wait on each other.
+ * Every change bumps a version number that callers can use to tell whether a computed availability is still current,
+ * and indexed days remember the version that last changed them so a range only goes stale when one of its days did.
+ * Listeners are told about every change right after it, on the thread that made it.
+ *
+ * Bookings made by other instances sharing the database never go through this index, so in that setup it is
+ * refreshed from the day_capacity table in the background, which replaces the counts that differ and marks those days
+ * as changed. Every local change counts as in flight on its days from when it starts until its transaction completes,
+ * and a refresh leaves alone the days that had one in flight since before it read the table.
+ *
+ * Searches for available stays read a segment tree over the counts of the horizon. Changes only flag the slots they
+ * touched in a bitmap, without locking, and the next search brings the tree up to date for those days alone.
+ */
+@Component
+public class OccupancyIndex {
+
+    // Covers 1 month of advance booking plus the longest stay with room to spare
+    static final int HORIZON_DAYS = 64;
+
+    private final DayCapacityRepository dayCapacityRepository;
+
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(HORIZON_DAYS);
+
+    private final AtomicLongArray changedAt = new AtomicLongArray(HORIZON_DAYS);
+
+    private volatile long firstDay;
+
+    // Seeded from the clock so versions handed out before a restart are not reused after it
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    // One bit per slot, which the horizon fits exactly, set when its count changed since the capacity tree caught up
+    private final AtomicLong changedSlots = new AtomicLong(-1L);
+
+    // Counts by day of the horizon starting at treeFirstDay, guarded by this index
+    private final MaxSegmentTree capacityTree = new MaxSegmentTree(HORIZON_DAYS);
+
+    private long treeFirstDay = Long.MIN_VALUE;
+
+    // Held while reading the table, so an older read is never applied over a newer one
+    private final Object refreshLock = new Object();
+
+    // Local changes started and finished per slot, equal while none is in flight
+    private final AtomicLongArray changesStarted = new AtomicLongArray(HORIZON_DAYS);
+
+    private final AtomicLongArray changesFinished = new AtomicLongArray(HORIZON_DAYS);
+
+    @Autowired
+    public OccupancyIndex(DayCapacityRepository dayCapacityRepository) {
+        this.dayCapacityRepository = dayCapacityRepository;
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        long today = LocalDate.now().toEpochDay();
+
+        int[] loaded = dayCapacityRepository.bookedPerDay(LocalDate.ofEpochDay(today), LocalDate.ofEpochDay(today + HORIZON_DAYS - 1));
+
+        long loadedAt = version.incrementAndGet();
+
+        for (int i = 0; i < HORIZON_DAYS; i++) {
+            counts.set(slot(today + i), loaded[i]);
+            changedAt.set(slot(today + i), loadedAt);
+        }
+
+        firstDay = today;
+        changedSlots.set(-1L);
+
+        notifyListeners();
+    }
+
+    @Scheduled(cron = "0 0 0 * * *")
+    public synchronized void rollForward() {
+        long today = LocalDate.now().toEpochDay();
+
+        if (today - firstDay >= HORIZON_DAYS) {
+            load();
+            return;
+        }
+
+        long rolledAt = version.incrementAndGet();
+
+        while (firstDay < today) {
+            // The day leaving the horizon and the day entering it share the same slot
+            LocalDate enteringDay = LocalDate.ofEpochDay(firstDay + HORIZON_DAYS);
+            counts.set(slot(firstDay), dayCapacityRepository.bookedPerDay(enteringDay, enteringDay)[0]);
+            changedAt.set(slot(firstDay), rolledAt);
+            firstDay++;
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * Replaces the counts of the horizon with the ones stored in the day_capacity table, read with one range scan.
+     * Only the days whose count differs are marked as changed, so versions and listeners only move when another
+     * instance booked or cancelled meanwhile.
+     *
+     * Days with a local change in flight at any point since the read started are skipped, the table may or may not
+     * hold that change yet, and are left to the next refresh. The others are replaced with a compare-and-set, so a
+     * change starting afterwards either lands on top of the stored count or makes the refresh skip the day.
+     */
+    public void refresh() {
+        synchronized (refreshLock) {
+            long first = firstDay;
+            long[] settled = new long[HORIZON_DAYS];
+
+            for (int slot = 0; slot < HORIZON_DAYS; slot++) {
+                settled[slot] = changesFinished.get(slot);
+            }
+
+            int[] stored = dayCapacityRepository.bookedPerDay(LocalDate.ofEpochDay(first), LocalDate.ofEpochDay(first + HORIZON_DAYS - 1));
+
+            synchronized (this) {
+                // Rolled forward meanwhile, the entering day was read from the table already
+                if (first != firstDay) {
+                    return;
+                }
+
+                long slots = 0;
+
+                for (int i = 0; i < HORIZON_DAYS; i++) {
+                    int slot = slot(first + i);
+
+                    // Nothing finished since the read started that had not started before it, and nothing in flight
+                    if (changesStarted.get(slot) != settled[slot]) {
+                        continue;
+                    }
+
+                    int current = counts.get(slot);
+
+                    if (current != stored[i] && changesStarted.get(slot) == settled[slot] && counts.compareAndSet(slot, current, stored[i])) {
+                        slots |= 1L << slot;
+                    }
+                }
+
+                if (slots == 0) {
+                    return;
+                }
+
+                long refreshedAt = version.incrementAndGet();
+
+                for (int slot = 0; slot < HORIZON_DAYS; slot++) {
+                    if ((slots & 1L << slot) != 0) {
+                        changedAt.set(slot, refreshedAt);
+                    }
+                }
+
+                changedSlots.getAndAccumulate(slots, (flagged, flagging) -> flagged | flagging);
+            }
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * Returns the arrival days between from and to (both inclusive), earliest first and at most limit of them, for
+     * which every day of a stay of the given number of days still has the given number of spots. Only stays within
+     * the horizon are found.
+     */
+    public synchronized List<LocalDate> availableArrivals(LocalDate from, LocalDate to, int days, int spots, int maxReservationsPerDay, int limit) {
+        long first = firstDay;
+
+        catchUpCapacityTree(first);
+
+        int threshold = maxReservationsPerDay - spots;
+        int last = (int) Math.min(to.toEpochDay() - first, HORIZON_DAYS - days);
+        int arrival = (int) Math.min(Math.max(from.toEpochDay() - first, 0), HORIZON_DAYS);
+        List<LocalDate> arrivals = new ArrayList<>();
+
+        while (arrival <= last && arrivals.size() < limit) {
+            int fullDay = capacityTree.firstAbove(arrival, threshold);
+
+            // Every arrival whose stay ends before the next day without enough spots is available
+            for (; arrival + days <= fullDay && arrival <= last && arrivals.size() < limit; arrival++) {
+                arrivals.add(LocalDate.ofEpochDay(first + arrival));
+            }
+
+            arrival = Math.max(arrival, fullDay + 1);
+        }
+
+        return arrivals;
+    }
+
+    private void catchUpCapacityTree(long first) {
+        // Taken before reading the counts, so a change racing with this is flagged again and caught up next time
+        long changed = changedSlots.getAndSet(0);
+
+        if (first != treeFirstDay) {
+            changed = -1L;
+            treeFirstDay = first;
+        }
+
+        int firstSlot = slot(first);
+
+        while (changed != 0) {
+            int slot = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+
+            capacityTree.set(Math.floorMod(slot - firstSlot, HORIZON_DAYS), counts.get(slot));
+        }
+    }
+
+    /**
+     * Registers a listener run after any count changed, once the transaction that changed it committed. It runs on
+     * the booking threads, so it has to return quickly.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Returns the version that last changed any day between from and to (both inclusive). Ranges reaching outside
+     * the horizon are not tracked per day and get the global version instead.
+     */
+    public long version(LocalDate from, LocalDate to) {
+        long first = firstDay;
+
+        if (from.toEpochDay() < first || to.toEpochDay() >= first + HORIZON_DAYS) {
+            return version.get();
+        }
+
+        long rangeVersion = 0;
+
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            rangeVersion = Math.max(rangeVersion, changedAt.get(slot(day)));
+        }
+
+        return rangeVersion;
+    }
+
+    public int reservationsOn(LocalDate day) {
+        return reservationsBetween(day, day)[0];
+    }
+
+    /**
+     * Returns the number of active reservations for every day between from and to (both inclusive). Indexed days
+     * are read from memory and any remaining days cost one query, regardless of the length of the range.
+     */
+    public int[] reservationsBetween(LocalDate from, LocalDate to) {
+        int[] reservations = new int[(int) ChronoUnit.DAYS.between(from, to) + 1];
+        boolean complete = true;
+
+        for (int i = 0; i < reservations.length; i++) {
+            long day = from.toEpochDay() + i;
+
+            if (covers(day)) {
+                reservations[i] = counts.get(slot(day));
+            } else {
+                reservations[i] = -1;
+                complete = false;
+            }
+        }
+
+        if (!complete) {
+            int[] stored = dayCapacityRepository.bookedPerDay(from, to);
+
+            for (int i = 0; i < reservations.length; i++) {
+                if (reservations[i] == -1) {
+                    reservations[i] = stored[i];
+                }
+            }
+        }
+
+        return reservations;
+    }
+
+    public List<LocalDate> fullDays(LocalDate from, LocalDate to, int maxReservationsPerDay) {
+        List<LocalDate> fullDays = new ArrayList<>();
+        int[] reservations = reservationsBetween(from, to);
+
+        for (int i = 0; i < reservations.length; i++) {
+            if (reservations[i] >= maxReservationsPerDay) {
+                fullDays.add(from.plusDays(i));
+            }
+        }
+
+        return fullDays;
+    }
+
+    /**
+     * Claims one spot on every indexed day between from and to (both inclusive) without taking any lock. Each day
+     * is incremented with a compare-and-set that fails once the day is full, in which case the days already claimed
+     * are given back and the full days are returned. An empty list means the whole stay was claimed.
+     */
+    public List<LocalDate> tryClaim(LocalDate from, LocalDate to, int maxReservationsPerDay) {
+        long slots = startChange(from.toEpochDay(), to.toEpochDay());
+
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            if (!covers(day)) {
+                continue;
+            }
+
+            int slot = slot(day);
+            int current;
+
+            do {
+                current = counts.get(slot);
+
+                if (current >= maxReservationsPerDay) {
+                    apply(from.toEpochDay(), day - 1, -1);
+                    finishChange(slots);
+
+                    List<LocalDate> fullDays = fullDays(from, to, maxReservationsPerDay);
+                    return fullDays.isEmpty() ? Collections.singletonList(LocalDate.ofEpochDay(day)) : fullDays;
+                }
+            } while (!counts.compareAndSet(slot, current, current + 1));
+        }
+
+        markChanged(from.toEpochDay(), to.toEpochDay());
+        revertUnlessCommitted(from, to, 1, slots);
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Adds delta to every indexed day between from and to (both inclusive). When called inside a transaction the
+     * change is reverted if that transaction does not commit, so the index never drifts from the database.
+     */
+    public void add(LocalDate from, LocalDate to, int delta) {
+        long slots = startChange(from.toEpochDay(), to.toEpochDay());
+
+        apply(from.toEpochDay(), to.toEpochDay(), delta);
+        revertUnlessCommitted(from, to, delta, slots);
+    }
+
+    /**
+     * Gives one spot back on every indexed day between from and to once the surrounding transaction commits, or right
+     * away without one. Until then the days stay taken, so no other booking can claim a spot that a rollback would
+     * take back.
+     */
+    public void releaseAfterCommit(LocalDate from, LocalDate to) {
+        long slots = startChange(from.toEpochDay(), to.toEpochDay());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        apply(from.toEpochDay(), to.toEpochDay(), -1);
+                    }
+
+                    finishChange(slots);
+                }
+            });
+        } else {
+            apply(from.toEpochDay(), to.toEpochDay(), -1);
+            finishChange(slots);
+        }
+    }
+
+    /**
+     * Reverts the change if the surrounding transaction does not commit, and finishes it once that transaction
+     * completes, or right away without one.
+     */
+    private void revertUnlessCommitted(LocalDate from, LocalDate to, int delta, long slots) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        apply(from.toEpochDay(), to.toEpochDay(), -delta);
+                    }
+
+                    finishChange(slots);
+                }
+            });
+        } else {
+            finishChange(slots);
+        }
+    }
+
+    /**
+     * Marks a local change of the indexed days between from and to as in flight, returning their slots to pass to
+     * {@link #finishChange} once it completed. The slots are kept rather than the days, so rolling forward meanwhile
+     * finishes exactly what was started.
+     */
+    private long startChange(long from, long to) {
+        long slots = 0;
+
+        for (long day = from; day <= to; day++) {
+            if (covers(day)) {
+                slots |= 1L << slot(day);
+            }
+        }
+
+        for (long remaining = slots; remaining != 0; remaining &= remaining - 1) {
+            changesStarted.incrementAndGet(Long.numberOfTrailingZeros(remaining));
+        }
+
+        return slots;
+    }
+
+    private void finishChange(long slots) {
+        for (long remaining = slots; remaining != 0; remaining &= remaining - 1) {
+            changesFinished.incrementAndGet(Long.numberOfTrailingZeros(remaining));
+        }
+    }
+
+    private void apply(long from, long to, int delta) {
+        for (long day = from; day <= to; day++) {
+            if (covers(day)) {
+                counts.addAndGet(slot(day), delta);
+            }
+        }
+
+        markChanged(from, to);
+    }
+
+    /**
+     * Bumps the version after the counts of the given days were changed, so a reader that sees the new version of a
+     * day also sees its new count.
+     */
+    private void markChanged(long from, long to) {
+        // Bumped even for days outside the horizon, their counts in the database changed as well
+        long changed = version.incrementAndGet();
+        long slots = 0;
+
+        for (long day = from; day <= to; day++) {
+            if (covers(day)) {
+                changedAt.set(slot(day), changed);
+                slots |= 1L << slot(day);
+            }
+        }
+
+        if (slots != 0) {
+            changedSlots.getAndAccumulate(slots, (flagged, flagging) -> flagged | flagging);
+        }
+
+        notifyListenersAfterCommit();
+    }
+
+    /**
+     * Notifies the listeners once the surrounding transaction commits, or right away without one, so they never hear
+     * of a change that a rollback takes back.
+     */
+    private void notifyListenersAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    notifyListeners();
+                }
+            });
+        } else {
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private boolean covers(long day) {
+        return day >= firstDay && day < firstDay + HORIZON_DAYS;
+    }
+
+    private static int slot(long day) {
+        return (int) Math.floorMod(day, (long) HORIZON_DAYS);
+    }
+}
@@ -0,0 +1,119 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.repository.ArchivedReservationRepository;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the reservations that were cancelled or whose stay ended out of the reservation table and into
+ * reservation_archive, so the reservation table only ever holds the active stays still to come. Nothing reading
+ * availability has to skip over the history of the park, and email listings read the archive only when asked to.
+ *
+ * Every batch is copied and deleted within the database in its own transaction, with its rows locked, so a
+ * reservation being cancelled or changed meanwhile either goes first or finds it was archived.
+ */
+@Component
+public class ReservationArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationArchiver.class);
+
+    private final ReservationRepository reservationRepository;
+
+    private final ArchivedReservationRepository archivedReservationRepository;
+
+    private final ReservationCache reservationCache;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    @Autowired
+    public ReservationArchiver(ReservationRepository reservationRepository, ArchivedReservationRepository archivedReservationRepository,
+                               ReservationCache reservationCache, PlatformTransactionManager transactionManager,
+                               @Value("${jurassic-world.archive-batch-size:500}") int batchSize) {
+        this.reservationRepository = reservationRepository;
+        this.archivedReservationRepository = archivedReservationRepository;
+        this.reservationCache = reservationCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(cron = "${jurassic-world.archive-cron:0 15 * * * *}")
+    public void archive() {
+        int archived = archive(LocalDate.now());
+
+        if (archived > 0) {
+            log.info("Archived {} ended or cancelled reservation(s)", archived);
+        }
+    }
+
+    /**
+     * Archives every cancelled reservation and every stay that ended before the given day, one batch at a time.
+     * Returns the number of reservations archived.
+     */
+    public int archive(LocalDate endedBefore) {
+        int archived = 0;
+        int batch;
+
+        do {
+            batch = transactionTemplate.execute(status -> archiveBatch(endedBefore));
+            archived += batch;
+        } while (batch > 0);
+
+        return archived;
+    }
+
+    private int archiveBatch(LocalDate endedBefore) {
+        Map<Long, Reservation> batch = new LinkedHashMap<>();
+
+        reservationRepository.findAllByReservationStatusForUpdate(ReservationStatus.CANCELLED, PageRequest.of(0, batchSize))
+                .forEach(reservation -> batch.put(reservation.getId(), reservation));
+
+        if (batch.size() < batchSize) {
+            // Cancelled stays that also ended may be found twice, the next batch picks up what this one missed
+            reservationRepository.findAllByDepartureDateBeforeForUpdate(endedBefore.atStartOfDay(), PageRequest.of(0, batchSize - batch.size()))
+                    .forEach(reservation -> batch.put(reservation.getId(), reservation));
+        }
+
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<Reservation> reservations = List.copyOf(batch.values());
+
+        reservations.forEach(reservation -> reservationCache.beginWrite(reservation.getToken()));
+
+        try {
+            int copied = archivedReservationRepository.copyFromReservations(batch.keySet());
+            int deleted = reservationRepository.deleteAllByIdIn(batch.keySet());
+
+            if (copied != batch.size() || deleted != batch.size()) {
+                // The rows are locked, so this only happens when they were archived elsewhere in the meantime
+                throw new ConcurrencyFailureException("Archived " + copied + " and deleted " + deleted + " of " + batch.size() + " reservations");
+            }
+        } finally {
+            // Nothing is cached back, the tokens are no longer found once the batch commits
+            reservations.forEach(reservation -> reservationCache.completeWrite(reservation.getToken(), null));
+        }
+
+        return batch.size();
+    }
+}
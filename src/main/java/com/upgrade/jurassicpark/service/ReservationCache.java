@@ -0,0 +1,294 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of reservations by token, evicting an entry not used since it was last passed over once full (an
+ * approximation of least recently used) and any entry older than its time to live. Entries are copies, so callers
+ * can never change what the next caller gets.
+ *
+ * Every write drops its token before touching the database and puts the new state back once it is committed, unless
+ * another write to the same token overlapped with it and the order they reached the database is unknown. Lookups
+ * that raced with a write to a token of the same stripe are not cached, so within this instance the cache never
+ * serves a status older than the database. Writes committed by other instances are not seen, so an entry can be up
+ * to its time to live behind them: the cache is off in the database booking mode, the one meant for several
+ * instances sharing a database.
+ */
+@Component
+public class ReservationCache {
+
+    private static final int STRIPES = 1024;
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final long timeToLiveNanos;
+
+    private final LongSupplier clock;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Entries in the order they were cached, swept for eviction. Entries dropped meanwhile stay until swept
+    private final ConcurrentLinkedQueue<Entry> sweepQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger sweepQueueSize = new AtomicInteger();
+
+    private final ReentrantLock sweepLock = new ReentrantLock();
+
+    // Bumped whenever a write to a token of the stripe starts or finishes
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    // Writes in flight by token, only changed while computing the entry of the same token
+    private final Map<String, Write> writes = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public ReservationCache(@Value("${jurassic-world.token-cache-size:10000}") int maxEntries,
+                            @Value("${jurassic-world.token-cache-ttl-seconds:300}") long timeToLiveSeconds,
+                            @Value("${jurassic-world.booking-mode:locking}") BookingMode bookingMode) {
+        this(bookingMode != BookingMode.DATABASE, maxEntries, TimeUnit.SECONDS.toNanos(timeToLiveSeconds), System::nanoTime);
+    }
+
+    ReservationCache(boolean enabled, int maxEntries, long timeToLiveNanos, LongSupplier clock) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.clock = clock;
+    }
+
+    public Reservation get(String token) {
+        Entry entry = entries.get(token);
+
+        if (entry != null && clock.getAsLong() - entry.cachedAt >= timeToLiveNanos) {
+            if (entries.remove(token, entry)) {
+                evictions.increment();
+            }
+
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+
+        hits.increment();
+        return copyOf(entry.reservation);
+    }
+
+    /**
+     * Stamp to pass to {@link #putIfUnchanged} when caching a reservation of this token read from the database.
+     */
+    public long stamp(String token) {
+        return stamps.get(stripe(token));
+    }
+
+    /**
+     * Caches a reservation read from the database, unless a write to a token of the same stripe started or finished
+     * since the stamp was taken, or one to the same token is still in flight.
+     */
+    public void putIfUnchanged(Reservation reservation, long stamp) {
+        if (!enabled) {
+            return;
+        }
+
+        String token = reservation.getToken();
+        Entry[] cached = new Entry[1];
+
+        entries.compute(token, (key, current) -> {
+            if (stamps.get(stripe(token)) != stamp || writes.containsKey(token)) {
+                return current;
+            }
+
+            cached[0] = new Entry(copyOf(reservation), clock.getAsLong());
+            return cached[0];
+        });
+
+        enqueue(cached[0]);
+    }
+
+    /**
+     * Drops the token before it is written. Every call has to be followed by {@link #completeWrite}.
+     */
+    public void beginWrite(String token) {
+        if (!enabled) {
+            return;
+        }
+
+        entries.compute(token, (key, current) -> {
+            stamps.incrementAndGet(stripe(token));
+
+            Write write = writes.computeIfAbsent(token, t -> new Write());
+            write.overlapped |= write.inFlight > 0;
+            write.inFlight++;
+
+            return null;
+        });
+    }
+
+    /**
+     * Completes a write once the surrounding transaction finishes, or right away without one. The written state is
+     * cached when it was committed and no other write to the same token overlapped with it; pass null when the
+     * write failed.
+     */
+    public void completeWrite(String token, Reservation written) {
+        if (!enabled) {
+            return;
+        }
+
+        Reservation snapshot = written == null ? null : copyOf(written);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    finishWrite(token, status == STATUS_COMMITTED ? snapshot : null);
+                }
+            });
+        } else {
+            finishWrite(token, snapshot);
+        }
+    }
+
+    private void finishWrite(String token, Reservation committed) {
+        Entry[] cached = new Entry[1];
+
+        entries.compute(token, (key, current) -> {
+            Write write = writes.get(token);
+
+            // Lookups that started before the write finished may hold the previous state
+            stamps.incrementAndGet(stripe(token));
+
+            if (--write.inFlight == 0) {
+                writes.remove(token);
+            }
+
+            if (committed == null || write.overlapped) {
+                return current;
+            }
+
+            cached[0] = new Entry(committed, clock.getAsLong());
+            return cached[0];
+        });
+
+        enqueue(cached[0]);
+    }
+
+    /**
+     * Queues a newly cached entry and, once the cache or the queue outgrew their bound, sweeps the queue: entries
+     * already dropped are discarded, the ones used since the last sweep get a second chance and the others are
+     * evicted. Only one thread sweeps at a time, the others leave it to it.
+     */
+    private void enqueue(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+
+        sweepQueue.offer(entry);
+        sweepQueueSize.incrementAndGet();
+
+        if ((entries.size() <= maxEntries && sweepQueueSize.get() <= 2 * maxEntries) || !sweepLock.tryLock()) {
+            return;
+        }
+
+        try {
+            while (entries.size() > maxEntries || sweepQueueSize.get() > 2 * maxEntries) {
+                Entry next = sweepQueue.poll();
+
+                if (next == null) {
+                    break;
+                }
+
+                if (entries.get(next.reservation.getToken()) != next) {
+                    sweepQueueSize.decrementAndGet();
+                } else if (next.referenced || entries.size() <= maxEntries) {
+                    next.referenced = false;
+                    sweepQueue.offer(next);
+                } else if (entries.remove(next.reservation.getToken(), next)) {
+                    sweepQueueSize.decrementAndGet();
+                    evictions.increment();
+                } else {
+                    sweepQueueSize.decrementAndGet();
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static int stripe(String token) {
+        return (token.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static Reservation copyOf(Reservation reservation) {
+        Reservation copy = new Reservation();
+        copy.setId(reservation.getId());
+        copy.setToken(reservation.getToken());
+        copy.setName(reservation.getName());
+        copy.setEmail(reservation.getEmail());
+        copy.setArrivalDate(reservation.getArrivalDate());
+        copy.setDepartureDate(reservation.getDepartureDate());
+        copy.setReservationStatus(reservation.getReservationStatus());
+        copy.setHeldUntil(reservation.getHeldUntil());
+        return copy;
+    }
+
+    private static final class Entry {
+
+        private final Reservation reservation;
+        private final long cachedAt;
+        private volatile boolean referenced;
+
+        Entry(Reservation reservation, long cachedAt) {
+            this.reservation = reservation;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    private static final class Write {
+
+        private int inFlight;
+        private boolean overlapped;
+    }
+}
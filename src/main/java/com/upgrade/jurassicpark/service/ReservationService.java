@@ -1,23 +1,95 @@
 package com.upgrade.jurassicpark.service;
 
 import com.upgrade.jurassicpark.exception.*;
+import com.upgrade.jurassicpark.model.AvailableStay;
+import com.upgrade.jurassicpark.model.BatchReservationResult;
 import com.upgrade.jurassicpark.model.Calendar;
 import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationPage;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface ReservationService {
 
     Calendar getReservationCalendar(LocalDateTime from, LocalDateTime to);
 
+    /**
+     * Number that changes whenever the availability of any day within the range changes, suitable to build ETags from.
+     */
+    long getInventoryVersion(LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Stays of the given number of nights that can still be booked with the given number of spots on every day,
+     * arriving between from and to (both inclusive), earliest first and at most limit of them.
+     */
+    List<AvailableStay> findAvailableStays(LocalDate from, LocalDate to, int nights, int spots, int limit) throws MaxDaysExceededException,
+            EndDateBeforeStartDateException;
+
+    /**
+     * Books a new reservation. Fails with an IllegalArgumentException when given one that already has an id, whose
+     * dates can only be changed with {@link #modify}.
+     */
     Reservation save(Reservation reservation) throws MaxDaysExceededException, MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException;
 
+    /**
+     * Changes the dates of an existing reservation, checking capacity only for the days it adds to its stay. The days
+     * it keeps are never counted against it, and the days it gives up are released in the same transaction. Fails
+     * with {@link ReservationNotFoundException} when the reservation was archived.
+     */
+    Reservation modify(Reservation reservation) throws MaxDaysExceededException, MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException, ReservationNotFoundException;
+
+    /**
+     * Takes a spot on every day of the stay without booking it, for the time given by the
+     * 'jurassic-world.hold-ttl-seconds' property. The days are given back unless the hold is confirmed by then. The
+     * token of the returned reservation identifies the hold, and it is held until {@link Reservation#getHeldUntil()}.
+     */
+    Reservation hold(Reservation reservation) throws MaxDaysExceededException, MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException;
+
+    /**
+     * Books the reservation held with the given id on the days it already holds, without checking them again.
+     * Confirming a reservation that was already confirmed returns it as it is.
+     */
+    Reservation confirmHold(String holdId) throws HoldExpiredException;
+
+    /**
+     * Validates the reservation on the calling thread and completes the returned future once it was booked, or
+     * exceptionally with {@link MaxReservationsPerDayExceededException} when a day of the stay is full.
+     */
+    CompletableFuture<Reservation> saveAsync(Reservation reservation) throws MaxDaysExceededException, BookingTooLateException, BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException;
+
+    /**
+     * Books all reservations in a single transaction, returning the token or the rejection reason of each of them in
+     * the same order. Rejecting one reservation does not prevent the others from being booked.
+     */
+    List<BatchReservationResult> saveAll(List<Reservation> reservations);
+
     Reservation findByToken(String token);
 
-    List<Reservation> findAllReservationsActive(String email);
+    List<ReservationSummary> findAllReservationsActive(String email);
+
+    List<ReservationSummary> findAllReservationsCancelled(String email);
+
+    /**
+     * Returns the reservations with the given status that were moved to the archive once they ended or were
+     * cancelled. Ended stays keep their active status.
+     */
+    List<ReservationSummary> findAllReservationsArchived(String email, ReservationStatus reservationStatus);
+
+    /**
+     * Returns at most size reservations following the cursor, or from the first one when after is null.
+     */
+    ReservationPage findReservationsPage(String email, ReservationStatus reservationStatus, Long after, int size);
 
-    List<Reservation> findAllReservationsCancelled(String email);
+    /**
+     * Passes every reservation to the action as it is read from the database, without holding them all in memory.
+     */
+    void forEachReservation(String email, ReservationStatus reservationStatus, Consumer<ReservationSummary> action);
 
     void cancelReservation(Reservation reservation);
 }
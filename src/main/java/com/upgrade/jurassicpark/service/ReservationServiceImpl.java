@@ -1,65 +1,723 @@
 package com.upgrade.jurassicpark.service;
 
 import com.upgrade.jurassicpark.exception.*;
+import com.upgrade.jurassicpark.model.AvailableStay;
+import com.upgrade.jurassicpark.model.BatchReservationResult;
 import com.upgrade.jurassicpark.model.Calendar;
-import com.upgrade.jurassicpark.model.Day;
 import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationPage;
+import com.upgrade.jurassicpark.model.ReservationSummary;
 import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.repository.ArchivedReservationRepository;
 import com.upgrade.jurassicpark.repository.ReservationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class ReservationServiceImpl implements ReservationService {
 
+    private static final int ALTERNATIVES = 3;
+
     @Value("${jurassic-world.max-reservations-per-day}")
     private Integer maxReservationsPerDay;
 
     @Value("${jurassic-world.maximum-days-in-reservation}")
     private Integer maximumDaysInReservation;
 
+    @Value("${jurassic-world.booking-mode:locking}")
+    private BookingMode bookingMode;
+
+    @Value("${jurassic-world.max-page-size:500}")
+    private Integer maxPageSize;
+
+    @Value("${jurassic-world.sequencer-queue-size:1024}")
+    private Integer sequencerQueueSize;
+
+    @Value("${jurassic-world.sequencer-batch-size:64}")
+    private Integer sequencerBatchSize;
+
+    @Value("${jurassic-world.hold-ttl-seconds:300}")
+    private Long holdTtlSeconds;
+
     private final ReservationRepository reservationRepository;
 
+    private final ArchivedReservationRepository archivedReservationRepository;
+
+    private final OccupancyIndex occupancyIndex;
+
+    private final DayCapacityLedger dayCapacityLedger;
+
+    private final ReservationCache reservationCache;
+
+    private final BookingMetrics bookingMetrics;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    private final DayLocks dayLocks = new DayLocks(OccupancyIndex.HORIZON_DAYS);
+
+    private final CalendarCache calendarCache = new CalendarCache(256);
+
+    private final ExecutorService holdExpirers;
+
+    private final HashedTimingWheel holdExpiry;
+
+    private final Map<String, HashedTimingWheel.Timeout> holdExpiries = new ConcurrentHashMap<>();
+
+    private BookingSequencer bookingSequencer;
+
     @Autowired
-    public ReservationServiceImpl(ReservationRepository reservationRepository) {
+    public ReservationServiceImpl(ReservationRepository reservationRepository, ArchivedReservationRepository archivedReservationRepository,
+                                  OccupancyIndex occupancyIndex, DayCapacityLedger dayCapacityLedger, ReservationCache reservationCache,
+                                  BookingMetrics bookingMetrics, PlatformTransactionManager transactionManager) {
         this.reservationRepository = reservationRepository;
+        this.archivedReservationRepository = archivedReservationRepository;
+        this.occupancyIndex = occupancyIndex;
+        this.dayCapacityLedger = dayCapacityLedger;
+        this.reservationCache = reservationCache;
+        this.bookingMetrics = bookingMetrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+
+        AtomicInteger expirerCount = new AtomicInteger();
+
+        // Each expiry holds a connection while it deletes the hold, two of them leave the pool to the bookings
+        this.holdExpirers = Executors.newFixedThreadPool(2, runnable -> {
+            Thread expirer = new Thread(runnable, "hold-expirer-" + expirerCount.incrementAndGet());
+            expirer.setDaemon(true);
+            return expirer;
+        });
+
+        // One bucket per second covers the default hold time of five minutes in a single turn
+        this.holdExpiry = new HashedTimingWheel("hold-expiry", 1, TimeUnit.SECONDS, 512, holdExpirers);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (bookingMode == BookingMode.SEQUENCER) {
+            bookingSequencer = new BookingSequencer(sequencerQueueSize, sequencerBatchSize, this::commit, bookingMetrics.batchSizes());
+            bookingSequencer.start();
+            bookingMetrics.bind(bookingSequencer);
+        }
+
+        holdExpiry.start();
+
+        // Holds taken before a restart still have to give their days back, right away when already expired
+        reservationRepository.findAllByReservationStatus(ReservationStatus.HELD).forEach(this::expireLater);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (bookingSequencer != null) {
+            bookingSequencer.stop();
+        }
+
+        holdExpiry.stop();
+
+        holdExpirers.shutdown();
+        holdExpirers.awaitTermination(30, TimeUnit.SECONDS);
     }
 
+    BookingSequencer getBookingSequencer() {
+        return bookingSequencer;
+    }
 
     @Override
     public Calendar getReservationCalendar(LocalDateTime from, LocalDateTime to) {
 
-        List<Day> days = new ArrayList<>();
+        long version = getInventoryVersion(from, to);
+
+        Calendar calendar = calendarCache.get(from.toLocalDate(), to.toLocalDate(), version);
+
+        if (calendar != null) {
+            return calendar;
+        }
+
+        // Counts come in date order, straight into the calendar
+        int[] reservationsPerDay = from.isAfter(to) ? new int[0] : occupancyIndex.reservationsBetween(from.toLocalDate(), to.toLocalDate());
+
+        calendar = new Calendar(from.toLocalDate(), reservationsPerDay, maxReservationsPerDay);
+
+        calendarCache.put(from.toLocalDate(), to.toLocalDate(), version, calendar);
+
+        return calendar;
+    }
+
+    @Override
+    public long getInventoryVersion(LocalDateTime from, LocalDateTime to) {
+        return occupancyIndex.version(from.toLocalDate(), to.toLocalDate());
+    }
 
-        while (from.isBefore(to) || from.isEqual(to)) {
-            days.add(new Day(
-                    from.toLocalDate(),
-                    reservationRepository.countAllByArrivalDateIsLessThanEqualAndDepartureDateIsGreaterThanEqual(
-                            from.toLocalDate().atStartOfDay(),
-                            from.toLocalDate().atStartOfDay()),
-                    maxReservationsPerDay));
+    /**
+     * In the database booking mode other instances book against the same day_capacity table, so the index is read
+     * back from it in the background. Availability keeps being answered from memory, at most one interval behind
+     * the bookings of the other instances.
+     */
+    @Scheduled(fixedDelayString = "${jurassic-world.inventory-refresh-ms:1000}", initialDelayString = "${jurassic-world.inventory-refresh-ms:1000}")
+    public void refreshInventory() {
+        if (bookingMode == BookingMode.DATABASE) {
+            occupancyIndex.refresh();
+        }
+    }
 
-            from = from.plusDays(1);
+    @Override
+    public List<AvailableStay> findAvailableStays(LocalDate from, LocalDate to, int nights, int spots, int limit) throws MaxDaysExceededException,
+            EndDateBeforeStartDateException {
+
+        if (nights < 0) {
+            throw new EndDateBeforeStartDateException();
+        }
+
+        if (nights >= maximumDaysInReservation) {
+            throw new MaxDaysExceededException(maximumDaysInReservation);
         }
 
-        Collections.sort(days);
+        // Only arrivals that checkDates accepts
+        LocalDate today = LocalDate.now();
+        LocalDate firstArrival = BookingWindow.firstArrival(today);
+        LocalDate lastArrival = BookingWindow.lastArrival(today);
 
-        return new Calendar(days);
+        List<AvailableStay> stays = new ArrayList<>();
+
+        // A stay takes every day from its arrival to its departure
+        occupancyIndex.availableArrivals(from.isBefore(firstArrival) ? firstArrival : from, to.isAfter(lastArrival) ? lastArrival : to,
+                nights + 1, Math.max(spots, 1), maxReservationsPerDay, limit)
+                .forEach(arrival -> stays.add(new AvailableStay(arrival.atStartOfDay(), arrival.plusDays(nights).atStartOfDay())));
+
+        return stays;
+    }
+
+    /**
+     * Adds the bookable stays of the same length nearest to the refused one, so clients do not have to try the next
+     * days one booking at a time. When a reservation is being changed, the days it holds still count as taken.
+     */
+    private MaxReservationsPerDayExceededException withAlternatives(MaxReservationsPerDayExceededException e, Reservation reservation) {
+        LocalDate arrival = reservation.getArrivalDate().toLocalDate();
+        int nights = (int) ChronoUnit.DAYS.between(arrival, reservation.getDepartureDate().toLocalDate());
+
+        try {
+            List<AvailableStay> stays = findAvailableStays(LocalDate.MIN, LocalDate.MAX, nights, 1, Integer.MAX_VALUE);
+
+            // Stable, so the earlier of two stays as far from the refused one comes first
+            stays.sort(Comparator.comparingLong(stay -> Math.abs(ChronoUnit.DAYS.between(arrival, stay.getArrivalDate().toLocalDate()))));
+
+            return e.withAlternatives(List.copyOf(stays.subList(0, Math.min(ALTERNATIVES, stays.size()))));
+        } catch (MaxDaysExceededException | EndDateBeforeStartDateException invalid) {
+            // Not reached, the stay passed the same checks before being refused
+            return e;
+        }
     }
 
     public Reservation save(Reservation reservation) throws MaxDaysExceededException,
             MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException,
             BookingInThePastException, EndDateBeforeStartDateException {
 
-        System.out.println("Started: "+LocalDateTime.now());
+        requireNew(reservation);
+
+        long startedAt = System.nanoTime();
+
+        try {
+            validate(reservation);
+
+            return book(reservation, reservation.getArrivalDate().toLocalDate(), reservation.getDepartureDate().toLocalDate());
+        } catch (MaxReservationsPerDayExceededException e) {
+            bookingMetrics.rejected(e);
+            throw withAlternatives(e, reservation);
+        } catch (MaxDaysExceededException | BookingTooLateException |
+                BookingTooSoonException | BookingInThePastException | EndDateBeforeStartDateException e) {
+            bookingMetrics.rejected(e);
+            throw e;
+        } finally {
+            bookingMetrics.record(BookingMetrics.Phase.TOTAL, startedAt);
+        }
+    }
+
+    private Reservation book(Reservation reservation, LocalDate startDate, LocalDate endDate) throws MaxReservationsPerDayExceededException {
+
+        if (bookingMode == BookingMode.DATABASE) {
+            return inTransaction(() -> {
+                long checkStartedAt = System.nanoTime();
+                List<LocalDate> invalidDates;
+
+                bookingMetrics.startWaiting();
+
+                try {
+                    invalidDates = dayCapacityLedger.claim(startDate, endDate);
+                } finally {
+                    bookingMetrics.stopWaiting();
+                    bookingMetrics.record(BookingMetrics.Phase.CAPACITY_CHECK, checkStartedAt);
+                }
+
+                if (!invalidDates.isEmpty()) {
+                    throw new MaxReservationsPerDayExceededException(invalidDates);
+                }
+
+                occupancyIndex.add(startDate, endDate, 1);
+
+                return insert(reservation, startDate, endDate);
+            });
+        }
+
+        if (bookingMode == BookingMode.SEQUENCER) {
+            try {
+                return bookingSequencer.submit(reservation, startDate, endDate).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof MaxReservationsPerDayExceededException) {
+                    throw (MaxReservationsPerDayExceededException) e.getCause();
+                }
+
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        if (bookingMode == BookingMode.LOCK_FREE) {
+            long checkStartedAt = System.nanoTime();
+            List<LocalDate> invalidDates = occupancyIndex.tryClaim(startDate, endDate, maxReservationsPerDay);
+            bookingMetrics.record(BookingMetrics.Phase.CAPACITY_CHECK, checkStartedAt);
+
+            if (!invalidDates.isEmpty()) {
+                throw new MaxReservationsPerDayExceededException(invalidDates);
+            }
+
+            return insert(reservation, startDate, endDate);
+        }
+
+        //Locking only the days of this stay allows validations above and bookings for other days to run in parallel
+
+        long lockStartedAt = System.nanoTime();
+
+        bookingMetrics.startWaiting();
+
+        try {
+            dayLocks.lock(startDate, endDate);
+        } finally {
+            bookingMetrics.stopWaiting();
+            bookingMetrics.record(BookingMetrics.Phase.LOCK_WAIT, lockStartedAt);
+        }
+
+        try {
+            long checkStartedAt = System.nanoTime();
+            List<LocalDate> invalidDates = occupancyIndex.fullDays(startDate, endDate, maxReservationsPerDay);
+            bookingMetrics.record(BookingMetrics.Phase.CAPACITY_CHECK, checkStartedAt);
+
+            if (!invalidDates.isEmpty()) {
+                throw new MaxReservationsPerDayExceededException(invalidDates);
+            }
+
+            occupancyIndex.add(startDate, endDate, 1);
+
+            return insert(reservation, startDate, endDate);
+        } finally {
+            dayLocks.unlock(startDate, endDate);
+        }
+
+    }
+
+    @Override
+    public Reservation modify(Reservation reservation) throws MaxDaysExceededException,
+            MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException,
+            BookingInThePastException, EndDateBeforeStartDateException, ReservationNotFoundException {
+
+        try {
+            validate(reservation);
+
+            Reservation savedReservation = change(reservation, reservation.getArrivalDate().toLocalDate(), reservation.getDepartureDate().toLocalDate());
+
+            if (savedReservation == null) {
+                throw new ReservationNotFoundException(reservation.getToken());
+            }
+
+            return savedReservation;
+        } catch (MaxReservationsPerDayExceededException e) {
+            bookingMetrics.rejected(e);
+            throw withAlternatives(e, reservation);
+        } catch (MaxDaysExceededException | BookingTooLateException |
+                BookingTooSoonException | BookingInThePastException | EndDateBeforeStartDateException e) {
+            bookingMetrics.rejected(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Moves an existing reservation to the days between startDate and endDate in a single transaction. Only the days
+     * the stay gains are checked and claimed, and only the days it loses are released, so the reservation is never
+     * counted against itself. A reservation that is no longer active holds no day and claims its whole new stay.
+     * Returns null when the reservation was archived or its hold expired meanwhile.
+     */
+    private Reservation change(Reservation reservation, LocalDate startDate, LocalDate endDate) throws MaxReservationsPerDayExceededException {
+        return inTransaction(() -> {
+            // Locks the reservation before its days, in the same order as cancelling it does
+            Optional<Reservation> lockedReservation = reservationRepository.findByIdForUpdate(reservation.getId());
+
+            if (!lockedReservation.isPresent()) {
+                return null;
+            }
+
+            Reservation previousReservation = lockedReservation
+                    .filter(previous -> previous.getReservationStatus().holdsDays())
+                    .orElse(null);
+
+            // A hold keeps being one until it is confirmed, on its new days
+            LocalDateTime heldUntil = previousReservation == null ? null : previousReservation.getHeldUntil();
+
+            LocalDate previousStartDate = previousReservation == null ? null : previousReservation.getArrivalDate().toLocalDate();
+            LocalDate previousEndDate = previousReservation == null ? null : previousReservation.getDepartureDate().toLocalDate();
+
+            List<DayRange> addedDays = DayRange.between(startDate, endDate).minus(previousStartDate, previousEndDate);
+            List<DayRange> removedDays = previousReservation == null ? Collections.emptyList() :
+                    DayRange.between(previousStartDate, previousEndDate).minus(startDate, endDate);
+
+            List<LocalDate> invalidDates;
+
+            if (bookingMode == BookingMode.DATABASE) {
+                invalidDates = previousReservation == null ?
+                        dayCapacityLedger.claim(startDate, endDate) :
+                        dayCapacityLedger.move(previousStartDate, previousEndDate, startDate, endDate);
+
+                if (invalidDates.isEmpty()) {
+                    addedDays.forEach(days -> occupancyIndex.add(days.from, days.to, 1));
+                }
+            } else if (bookingMode == BookingMode.LOCKING) {
+                // Both stays, so no booking for a day changing hands runs while this one is decided
+                LocalDate firstDate = previousStartDate == null || startDate.isBefore(previousStartDate) ? startDate : previousStartDate;
+                LocalDate lastDate = previousEndDate == null || endDate.isAfter(previousEndDate) ? endDate : previousEndDate;
+
+                dayLocks.lock(firstDate, lastDate);
+
+                try {
+                    invalidDates = new ArrayList<>();
+
+                    for (DayRange days : addedDays) {
+                        invalidDates.addAll(occupancyIndex.fullDays(days.from, days.to, maxReservationsPerDay));
+                    }
+
+                    if (invalidDates.isEmpty()) {
+                        addedDays.forEach(days -> occupancyIndex.add(days.from, days.to, 1));
+                    }
+                } finally {
+                    dayLocks.unlock(firstDate, lastDate);
+                }
+            } else {
+                invalidDates = tryClaim(addedDays);
+            }
+
+            if (!invalidDates.isEmpty()) {
+                throw new MaxReservationsPerDayExceededException(invalidDates);
+            }
+
+            // Given back once the change is durable, a rollback would otherwise put them back on top of new bookings
+            removedDays.forEach(days -> occupancyIndex.releaseAfterCommit(days.from, days.to));
+
+            Reservation savedReservation = null;
+
+            reservationCache.beginWrite(reservation.getToken());
+
+            try {
+                reservation.setReservationStatus(heldUntil == null ? ReservationStatus.ACTIVE : ReservationStatus.HELD);
+                reservation.setHeldUntil(heldUntil);
+                savedReservation = reservationRepository.save(reservation);
+
+                // The database mode already moved its spot in the ledger when claiming the new days
+                if (bookingMode != BookingMode.DATABASE) {
+                    if (previousReservation == null) {
+                        dayCapacityLedger.add(startDate, endDate);
+                    } else {
+                        dayCapacityLedger.shift(previousStartDate, previousEndDate, startDate, endDate);
+                    }
+                }
+            } finally {
+                reservationCache.completeWrite(reservation.getToken(), savedReservation);
+            }
+
+            return savedReservation;
+        });
+    }
+
+    @Override
+    public Reservation hold(Reservation reservation) throws MaxDaysExceededException,
+            MaxReservationsPerDayExceededException, BookingTooLateException, BookingTooSoonException,
+            BookingInThePastException, EndDateBeforeStartDateException {
+
+        reservation.setReservationStatus(ReservationStatus.HELD);
+        reservation.setHeldUntil(LocalDateTime.now().plusSeconds(holdTtlSeconds));
+
+        Reservation heldReservation = save(reservation);
+
+        expireLater(heldReservation);
+
+        return heldReservation;
+    }
+
+    @Override
+    public Reservation confirmHold(String holdId) throws HoldExpiredException {
+        Reservation confirmedReservation = transactionTemplate.execute(status -> {
+            Reservation heldReservation = reservationRepository.findByTokenForUpdate(holdId).orElse(null);
+
+            if (heldReservation == null || ReservationStatus.ACTIVE.equals(heldReservation.getReservationStatus())) {
+                return heldReservation;
+            }
+
+            // Cancelled, or about to be expired by the next tick of the wheel
+            if (!ReservationStatus.HELD.equals(heldReservation.getReservationStatus()) || !heldReservation.getHeldUntil().isAfter(LocalDateTime.now())) {
+                return null;
+            }
+
+            Reservation savedReservation = null;
+
+            reservationCache.beginWrite(holdId);
+
+            try {
+                // Its days were taken when it was held, confirming it changes none of them
+                heldReservation.setReservationStatus(ReservationStatus.ACTIVE);
+                heldReservation.setHeldUntil(null);
+                savedReservation = reservationRepository.save(heldReservation);
+            } finally {
+                reservationCache.completeWrite(holdId, savedReservation);
+            }
+
+            return savedReservation;
+        });
+
+        if (confirmedReservation == null) {
+            throw new HoldExpiredException(holdId);
+        }
+
+        HashedTimingWheel.Timeout expiry = holdExpiries.remove(holdId);
+
+        if (expiry != null) {
+            expiry.cancel();
+        }
+
+        return confirmedReservation;
+    }
+
+    private void expireLater(Reservation heldReservation) {
+        Long id = heldReservation.getId();
+        String token = heldReservation.getToken();
+        long delay = Duration.between(LocalDateTime.now(), heldReservation.getHeldUntil()).toMillis();
+
+        // Scheduled while holding the entry, so an expiry running right away cannot remove it before it is put
+        holdExpiries.compute(token, (key, previous) -> holdExpiry.schedule(() -> expire(id, token), delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Deletes a hold that was neither confirmed nor cancelled in time and gives its days back. Runs on the thread of
+     * the timing wheel.
+     */
+    private void expire(Long id, String token) {
+        holdExpiries.remove(token);
+
+        transactionTemplate.execute(status -> {
+            Reservation heldReservation = reservationRepository.findByIdForUpdate(id)
+                    .filter(reservation -> ReservationStatus.HELD.equals(reservation.getReservationStatus()))
+                    .orElse(null);
+
+            if (heldReservation != null) {
+                reservationCache.beginWrite(token);
+
+                try {
+                    reservationRepository.delete(heldReservation);
+                    release(heldReservation.getArrivalDate().toLocalDate(), heldReservation.getDepartureDate().toLocalDate());
+                } finally {
+                    reservationCache.completeWrite(token, null);
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Claims every range without a lock, giving back the ranges already claimed when one of them is full.
+     */
+    private List<LocalDate> tryClaim(List<DayRange> ranges) {
+        for (int i = 0; i < ranges.size(); i++) {
+            List<LocalDate> invalidDates = occupancyIndex.tryClaim(ranges.get(i).from, ranges.get(i).to, maxReservationsPerDay);
+
+            if (!invalidDates.isEmpty()) {
+                ranges.subList(0, i).forEach(days -> occupancyIndex.add(days.from, days.to, -1));
+                return invalidDates;
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Consecutive days between from and to, both inclusive.
+     */
+    private static final class DayRange {
+
+        private final LocalDate from;
+        private final LocalDate to;
+
+        private DayRange(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        static DayRange between(LocalDate from, LocalDate to) {
+            return new DayRange(from, to);
+        }
+
+        /**
+         * The days of this range outside the one between from and to, which leaves at most one range on each side.
+         */
+        List<DayRange> minus(LocalDate from, LocalDate to) {
+            if (from == null || to.isBefore(this.from) || from.isAfter(this.to)) {
+                return Collections.singletonList(this);
+            }
+
+            List<DayRange> ranges = new ArrayList<>(2);
+
+            if (this.from.isBefore(from)) {
+                ranges.add(new DayRange(this.from, from.minusDays(1)));
+            }
+
+            if (this.to.isAfter(to)) {
+                ranges.add(new DayRange(to.plusDays(1), this.to));
+            }
+
+            return ranges;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Reservation> saveAsync(Reservation reservation) throws MaxDaysExceededException,
+            BookingTooLateException, BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException {
+
+        requireNew(reservation);
+
+        if (bookingMode != BookingMode.SEQUENCER) {
+            try {
+                return CompletableFuture.completedFuture(save(reservation));
+            } catch (MaxReservationsPerDayExceededException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        long startedAt = System.nanoTime();
+
+        try {
+            validate(reservation);
+        } catch (MaxDaysExceededException | BookingTooLateException | BookingTooSoonException |
+                BookingInThePastException | EndDateBeforeStartDateException e) {
+            bookingMetrics.rejected(e);
+            bookingMetrics.record(BookingMetrics.Phase.TOTAL, startedAt);
+            throw e;
+        }
+
+        // Completed by the writer thread, so the answer is handled elsewhere to keep searching alternatives off it
+        return bookingSequencer.submit(reservation, reservation.getArrivalDate().toLocalDate(), reservation.getDepartureDate().toLocalDate())
+                .handleAsync((savedReservation, e) -> {
+                    bookingMetrics.record(BookingMetrics.Phase.TOTAL, startedAt);
+
+                    if (e == null) {
+                        return savedReservation;
+                    }
+
+                    if (e instanceof MaxReservationsPerDayExceededException) {
+                        bookingMetrics.rejected((MaxReservationsPerDayExceededException) e);
+                        throw new CompletionException(withAlternatives((MaxReservationsPerDayExceededException) e, reservation));
+                    }
+
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                });
+    }
+
+    /**
+     * Decides and persists a batch handed over by the sequencer in a single transaction. When that transaction
+     * fails, every booking not yet answered is retried on its own, so one bad row does not fail its neighbours.
+     */
+    private void commit(List<BookingSequencer.PendingBooking> batch) {
+        Map<BookingSequencer.PendingBooking, Reservation> accepted = new LinkedHashMap<>();
+        Map<BookingSequencer.PendingBooking, Long> ids = new HashMap<>();
+
+        batch.forEach(booking -> ids.put(booking, booking.getReservation().getId()));
+
+        try {
+            transactionTemplate.execute(status -> {
+                for (BookingSequencer.PendingBooking booking : batch) {
+                    bookingMetrics.record(BookingMetrics.Phase.LOCK_WAIT, booking.getSubmittedAt());
+
+                    long checkStartedAt = System.nanoTime();
+                    List<LocalDate> invalidDates = claim(booking.getStartDate(), booking.getEndDate());
+                    bookingMetrics.record(BookingMetrics.Phase.CAPACITY_CHECK, checkStartedAt);
+
+                    if (invalidDates.isEmpty()) {
+                        accepted.put(booking, insert(booking.getReservation(), booking.getStartDate(), booking.getEndDate()));
+                    } else {
+                        booking.getFuture().completeExceptionally(new MaxReservationsPerDayExceededException(invalidDates));
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // Hibernate gave ids to the reservations it persisted in the rolled back transaction, none of them exist
+            batch.forEach(booking -> booking.getReservation().setId(ids.get(booking)));
+
+            if (batch.size() == 1) {
+                batch.get(0).getFuture().completeExceptionally(e);
+            } else {
+                batch.stream()
+                        .filter(booking -> !booking.getFuture().isDone())
+                        .forEach(booking -> commit(Collections.singletonList(booking)));
+            }
+            return;
+        }
+
+        accepted.forEach((booking, savedReservation) -> booking.getFuture().complete(savedReservation));
+    }
+
+    private void validate(Reservation reservation) throws MaxDaysExceededException, BookingTooLateException,
+            BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException {
+
+        long startedAt = System.nanoTime();
+
+        try {
+            checkDates(reservation);
+        } finally {
+            bookingMetrics.record(BookingMetrics.Phase.VALIDATION, startedAt);
+        }
+    }
+
+    private void checkDates(Reservation reservation) throws MaxDaysExceededException, BookingTooLateException,
+            BookingTooSoonException, BookingInThePastException, EndDateBeforeStartDateException {
 
         LocalDate startDate = reservation.getArrivalDate().toLocalDate();
         LocalDate endDate = reservation.getDepartureDate().toLocalDate();
@@ -72,73 +730,341 @@ public class ReservationServiceImpl implements ReservationService {
             throw new BookingInThePastException();
         }
 
-        if (startDate.minusDays(1).isBefore(LocalDate.now()) || startDate.minusDays(1).isEqual(LocalDate.now())) {
+        if (startDate.isBefore(BookingWindow.firstArrival(LocalDate.now()))) {
             throw new BookingTooLateException();
         }
 
-        if (startDate.minusMonths(1).isAfter(LocalDate.now()) || startDate.minusMonths(1).isEqual(LocalDate.now())) {
+        if (startDate.isAfter(BookingWindow.lastArrival(LocalDate.now()))) {
             throw new BookingTooSoonException();
         }
 
         if (endDate.minusDays(maximumDaysInReservation).isAfter(startDate) || endDate.minusDays(maximumDaysInReservation).isEqual(startDate)) {
             throw new MaxDaysExceededException(maximumDaysInReservation);
         }
+    }
 
-        //Synchronizing only this block allows for validations above still take place on different threads
+    @Override
+    public List<BatchReservationResult> saveAll(List<Reservation> reservations) {
 
-        synchronized (this) {
-            List<LocalDate> invalidDates = new ArrayList<>();
+        BatchReservationResult[] results = new BatchReservationResult[reservations.size()];
+        List<Integer> valid = new ArrayList<>();
 
-            while (!startDate.isAfter(endDate)) {
+        for (int i = 0; i < reservations.size(); i++) {
+            try {
+                validate(reservations.get(i));
+                valid.add(i);
+            } catch (MaxDaysExceededException | BookingTooLateException | BookingTooSoonException |
+                    BookingInThePastException | EndDateBeforeStartDateException e) {
+                bookingMetrics.rejected(e);
+                results[i] = rejected(e);
+            }
+        }
 
-                if (reservationRepository.countAllByArrivalDateIsLessThanEqualAndDepartureDateIsGreaterThanEqual(
-                        startDate.atStartOfDay(),
-                        startDate.atStartOfDay()) >= maxReservationsPerDay) {
+        if (!valid.isEmpty()) {
+            LocalDate firstDate = valid.stream().map(i -> reservations.get(i).getArrivalDate().toLocalDate()).min(LocalDate::compareTo).get();
+            LocalDate lastDate = valid.stream().map(i -> reservations.get(i).getDepartureDate().toLocalDate()).max(LocalDate::compareTo).get();
 
-                    invalidDates.add(startDate);
-                }
+            // One lock acquisition for the whole batch, bookings for other days still run in parallel
 
-                startDate = startDate.plusDays(1);
+            if (bookingMode == BookingMode.LOCKING) {
+                dayLocks.lock(firstDate, lastDate);
             }
 
-            if (!invalidDates.isEmpty()) {
-                throw new MaxReservationsPerDayExceededException(invalidDates);
-            }
+            try {
+                transactionTemplate.execute(status -> {
+                    List<Reservation> accepted = new ArrayList<>();
+
+                    for (Integer i : valid) {
+                        Reservation reservation = reservations.get(i);
+                        List<LocalDate> invalidDates;
+
+                        try {
+                            invalidDates = claimInBatch(reservation.getArrivalDate().toLocalDate(), reservation.getDepartureDate().toLocalDate());
+                        } catch (ConcurrencyFailureException e) {
+                            // Nothing of this stay was claimed, the bookings accepted before it stay in the batch
+                            bookingMetrics.rejected(e);
+                            results[i] = new BatchReservationResult(null, new ExceptionResponse(
+                                    "The days of this reservation could not be claimed, please try again", HttpStatus.CONFLICT.value()));
+                            continue;
+                        }
+
+                        if (invalidDates.isEmpty()) {
+                            reservation.setId(null);
+                            reservation.setToken(UUID.randomUUID().toString());
+                            reservation.setReservationStatus(ReservationStatus.ACTIVE);
+                            accepted.add(reservation);
+
+                            results[i] = new BatchReservationResult(reservation.getToken(), null);
+                        } else {
+                            MaxReservationsPerDayExceededException e = new MaxReservationsPerDayExceededException(invalidDates);
+                            bookingMetrics.rejected(e);
+                            results[i] = rejected(e);
+                        }
+                    }
 
+                    List<Reservation> savedReservations = null;
 
+                    accepted.forEach(reservation -> reservationCache.beginWrite(reservation.getToken()));
 
-            if (reservation.getToken() == null) {
-                reservation.setToken(UUID.randomUUID().toString());
+                    try {
+                        savedReservations = reservationRepository.saveAll(accepted);
+
+                        if (bookingMode != BookingMode.DATABASE) {
+                            // In arrival order, so two batches lock the days they share in the same order
+                            accepted.stream()
+                                    .sorted(Comparator.comparing(Reservation::getArrivalDate))
+                                    .forEach(reservation -> dayCapacityLedger.add(reservation.getArrivalDate().toLocalDate(), reservation.getDepartureDate().toLocalDate()));
+                        }
+                    } finally {
+                        for (Reservation reservation : accepted) {
+                            reservationCache.completeWrite(reservation.getToken(), savedReservations == null ? null : reservation);
+                        }
+                    }
+
+                    return savedReservations;
+                });
+            } finally {
+                if (bookingMode == BookingMode.LOCKING) {
+                    dayLocks.unlock(firstDate, lastDate);
+                }
             }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Claims one spot on every day of a stay within the current transaction, returning the full days when it
+     * could not. Claims are given back if the transaction does not commit.
+     */
+    private List<LocalDate> claim(LocalDate startDate, LocalDate endDate) {
+        List<LocalDate> invalidDates;
+
+        if (bookingMode == BookingMode.LOCK_FREE || bookingMode == BookingMode.SEQUENCER) {
+            return occupancyIndex.tryClaim(startDate, endDate, maxReservationsPerDay);
+        }
+
+        if (bookingMode == BookingMode.DATABASE) {
+            invalidDates = dayCapacityLedger.claim(startDate, endDate);
+        } else {
+            invalidDates = occupancyIndex.fullDays(startDate, endDate, maxReservationsPerDay);
+        }
 
+        if (invalidDates.isEmpty()) {
+            occupancyIndex.add(startDate, endDate, 1);
+        }
+
+        return invalidDates;
+    }
+
+    /**
+     * Claims a stay of a batch like {@link #claim}. The database mode locks the days before claiming them, so a stay
+     * that cannot be claimed is rejected on its own instead of failing the transaction of the whole batch.
+     */
+    private List<LocalDate> claimInBatch(LocalDate startDate, LocalDate endDate) {
+        if (bookingMode != BookingMode.DATABASE) {
+            return claim(startDate, endDate);
+        }
+
+        List<LocalDate> invalidDates = dayCapacityLedger.claimLocked(startDate, endDate);
+
+        if (invalidDates.isEmpty()) {
+            occupancyIndex.add(startDate, endDate, 1);
+        }
+
+        return invalidDates;
+    }
+
+    private static BatchReservationResult rejected(Exception e) {
+        return new BatchReservationResult(null, new ExceptionResponse(e.getMessage(), HttpStatus.BAD_REQUEST.value()));
+    }
+
+    /**
+     * Persists a new reservation whose days were already claimed in the occupancy index, giving the claim back if
+     * the insert fails.
+     */
+    private Reservation insert(Reservation reservation, LocalDate startDate, LocalDate endDate) {
+
+        Reservation savedReservation = null;
+
+        if (reservation.getToken() == null) {
+            reservation.setToken(UUID.randomUUID().toString());
+        }
+
+        long startedAt = System.nanoTime();
+
+        reservationCache.beginWrite(reservation.getToken());
+
+        try {
+            savedReservation = transactionTemplate.execute(status -> persist(reservation));
+        } catch (RuntimeException e) {
+            occupancyIndex.add(startDate, endDate, -1);
+            throw e;
+        } finally {
+            reservationCache.completeWrite(reservation.getToken(), savedReservation);
+            bookingMetrics.record(BookingMetrics.Phase.INSERT, startedAt);
+        }
+
+        return savedReservation;
+    }
+
+    /**
+     * Saves the new reservation and records its days in the ledger.
+     */
+    private Reservation persist(Reservation reservation) {
+        // Holds are booked like any reservation, only their status tells them apart
+        if (!ReservationStatus.HELD.equals(reservation.getReservationStatus())) {
             reservation.setReservationStatus(ReservationStatus.ACTIVE);
+            reservation.setHeldUntil(null);
+        }
+
+        Reservation savedReservation = reservationRepository.save(reservation);
 
+        // The database mode already recorded it in the ledger when claiming the days
+        if (bookingMode != BookingMode.DATABASE) {
+            dayCapacityLedger.add(savedReservation.getArrivalDate().toLocalDate(), savedReservation.getDepartureDate().toLocalDate());
+        }
 
-            System.out.println("Finished: "+LocalDateTime.now());
+        return savedReservation;
+    }
 
-            return reservationRepository.save(reservation);
+    /**
+     * Changes of an existing reservation go through {@link #modify}, which locks the reservation before its days.
+     * Booking one again would count its stay against itself and take the same locks the other way round.
+     */
+    private static void requireNew(Reservation reservation) {
+        if (reservation.getId() != null) {
+            throw new IllegalArgumentException("Reservation " + reservation.getToken() + " already exists, change it with modify");
         }
+    }
 
+    private void release(LocalDate startDate, LocalDate endDate) {
+        occupancyIndex.releaseAfterCommit(startDate, endDate);
+        dayCapacityLedger.release(startDate, endDate);
+    }
+
+    /**
+     * Runs a booking step in a transaction, rolling it back when the step rejects the booking for lack of capacity.
+     */
+    private Reservation inTransaction(BookingStep step) throws MaxReservationsPerDayExceededException {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return step.run();
+                } catch (MaxReservationsPerDayExceededException e) {
+                    throw new BookingRejected(e);
+                }
+            });
+        } catch (BookingRejected e) {
+            throw e.reason;
+        }
+    }
+
+    private interface BookingStep {
+        Reservation run() throws MaxReservationsPerDayExceededException;
+    }
+
+    private static class BookingRejected extends RuntimeException {
+
+        private final MaxReservationsPerDayExceededException reason;
+
+        BookingRejected(MaxReservationsPerDayExceededException reason) {
+            super(reason);
+            this.reason = reason;
+        }
     }
 
     @Override
     public Reservation findByToken(String token) {
-        return reservationRepository.findByToken(token);
+        Reservation reservation = reservationCache.get(token);
+
+        if (reservation == null) {
+            long stamp = reservationCache.stamp(token);
+
+            reservation = reservationRepository.findByToken(token);
+
+            if (reservation != null) {
+                reservationCache.putIfUnchanged(reservation, stamp);
+            }
+        }
+
+        return reservation;
     }
 
     @Override
     public void cancelReservation(Reservation reservation) {
-        reservation.setReservationStatus(ReservationStatus.CANCELLED);
-        reservationRepository.save(reservation);
+        transactionTemplate.execute(status -> {
+            Reservation savedReservation = null;
+
+            reservationCache.beginWrite(reservation.getToken());
+
+            try {
+                // The locked row tells whether the days are still held, the given copy may be out of date
+                Reservation currentReservation = reservationRepository.findByIdForUpdate(reservation.getId()).orElse(null);
+
+                if (currentReservation == null) {
+                    // Archived since it was looked up, so it already ended or was cancelled
+                    reservation.setReservationStatus(ReservationStatus.CANCELLED);
+                    return null;
+                }
+
+                boolean wasActive = currentReservation.getReservationStatus().holdsDays();
+
+                currentReservation.setReservationStatus(ReservationStatus.CANCELLED);
+                currentReservation.setHeldUntil(null);
+                reservation.setReservationStatus(ReservationStatus.CANCELLED);
+                savedReservation = reservationRepository.save(currentReservation);
+
+                if (wasActive) {
+                    release(currentReservation.getArrivalDate().toLocalDate(), currentReservation.getDepartureDate().toLocalDate());
+                }
+            } finally {
+                reservationCache.completeWrite(reservation.getToken(), savedReservation);
+            }
+
+            return savedReservation;
+        });
     }
 
     @Override
-    public List<Reservation> findAllReservationsActive(String email) {
+    public List<ReservationSummary> findAllReservationsActive(String email) {
         return reservationRepository.findAllByEmailAndReservationStatus(email, ReservationStatus.ACTIVE);
     }
 
     @Override
-    public List<Reservation> findAllReservationsCancelled(String email) {
+    public List<ReservationSummary> findAllReservationsCancelled(String email) {
         return reservationRepository.findAllByEmailAndReservationStatus(email, ReservationStatus.CANCELLED);
     }
+
+    @Override
+    public List<ReservationSummary> findAllReservationsArchived(String email, ReservationStatus reservationStatus) {
+        return archivedReservationRepository.findAllByEmailAndReservationStatus(email, reservationStatus);
+    }
+
+    @Override
+    public ReservationPage findReservationsPage(String email, ReservationStatus reservationStatus, Long after, int size) {
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+
+        // One extra row tells whether there is a next page without a count query
+        List<ReservationSummary> reservations = reservationRepository.findAllByEmailAndReservationStatusAfter(
+                email, reservationStatus, after == null ? 0L : after, PageRequest.of(0, pageSize + 1));
+
+        if (reservations.size() <= pageSize) {
+            return new ReservationPage(reservations, null);
+        }
+
+        List<ReservationSummary> page = reservations.subList(0, pageSize);
+
+        return new ReservationPage(page, page.get(pageSize - 1).getId());
+    }
+
+    @Override
+    public void forEachReservation(String email, ReservationStatus reservationStatus, Consumer<ReservationSummary> action) {
+        readOnlyTransactionTemplate.execute(status -> {
+            try (Stream<ReservationSummary> reservations = reservationRepository.streamAllByEmailAndReservationStatus(email, reservationStatus)) {
+                reservations.forEach(action);
+            }
+            return null;
+        });
+    }
 }
@@ -2,10 +2,17 @@ package com.upgrade.jurassicpark.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.upgrade.jurassicpark.exception.*;
+import com.upgrade.jurassicpark.model.AvailableStay;
+import com.upgrade.jurassicpark.model.BatchReservationResult;
 import com.upgrade.jurassicpark.model.Calendar;
 import com.upgrade.jurassicpark.model.Day;
+import com.upgrade.jurassicpark.model.Hold;
 import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationPage;
 import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import com.upgrade.jurassicpark.service.AvailabilityPublisher;
+import com.upgrade.jurassicpark.service.AvailabilitySubscriber;
 import com.upgrade.jurassicpark.service.ReservationService;
 import org.junit.Before;
 import org.junit.Test;
@@ -23,11 +30,17 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
@@ -43,7 +56,11 @@ public class ReservationControllerTest {
     @MockBean
     private ReservationService reservationService;
 
+    @MockBean
+    private AvailabilityPublisher availabilityPublisher;
+
     private Reservation reservation;
+    private ReservationSummary summary;
     private Calendar calendar;
 
     @Before
@@ -57,6 +74,9 @@ public class ReservationControllerTest {
         reservation.setReservationStatus(ReservationStatus.ACTIVE);
         reservation.setDepartureDate(LocalDate.now().plusDays(2).atStartOfDay());
 
+        summary = new ReservationSummary(reservation.getId(), reservation.getToken(), reservation.getName(), reservation.getEmail(),
+                reservation.getArrivalDate(), reservation.getDepartureDate());
+
 
         List<Day> days = new ArrayList<>();
 
@@ -73,7 +93,7 @@ public class ReservationControllerTest {
     public void testFindAllReservationsActive() throws Exception {
 
         Mockito.when(
-                reservationService.findAllReservationsActive(Mockito.anyString())).thenReturn(Collections.singletonList(reservation));
+                reservationService.findAllReservationsActive(Mockito.anyString())).thenReturn(Collections.singletonList(summary));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
                 "/api/reservations/" + reservation.getEmail()).accept(
@@ -87,11 +107,34 @@ public class ReservationControllerTest {
                 .getContentAsString(), false);
     }
 
+    @Test
+    public void testFindAllReservationsActiveIncludingArchived() throws Exception {
+
+        ReservationSummary archived = new ReservationSummary(1L, "0b5a1c7e-3f2d-4e6a-8b9c-7d1e2f3a4b5c", reservation.getName(),
+                reservation.getEmail(), reservation.getArrivalDate().minusMonths(1), reservation.getDepartureDate().minusMonths(1));
+
+        Mockito.when(
+                reservationService.findAllReservationsActive(Mockito.anyString())).thenReturn(Collections.singletonList(summary));
+        Mockito.when(
+                reservationService.findAllReservationsArchived(Mockito.anyString(), Mockito.eq(ReservationStatus.ACTIVE))).thenReturn(Collections.singletonList(archived));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/" + reservation.getEmail() + "?includeArchived=true").accept(
+                MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        String expected = jsonObjectMapper.writeValueAsString(Arrays.asList(archived, summary));
+
+        JSONAssert.assertEquals(expected, result.getResponse()
+                .getContentAsString(), true);
+    }
+
     @Test
     public void testFindAllReservationsCancelled() throws Exception {
 
         Mockito.when(
-                reservationService.findAllReservationsCancelled(Mockito.anyString())).thenReturn(Collections.singletonList(reservation));
+                reservationService.findAllReservationsCancelled(Mockito.anyString())).thenReturn(Collections.singletonList(summary));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
                 "/api/reservations/" + reservation.getEmail() + "/cancelled").accept(
@@ -105,6 +148,48 @@ public class ReservationControllerTest {
                 .getContentAsString(), false);
     }
 
+    @Test
+    public void testFindReservationsActivePage() throws Exception {
+
+        Mockito.when(
+                reservationService.findReservationsPage(reservation.getEmail(), ReservationStatus.ACTIVE, 1000L, 50))
+                .thenReturn(new ReservationPage(Collections.singletonList(summary), 1050L));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/" + reservation.getEmail() + "/page?after=1000&size=50").accept(
+                MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        String expected = "{reservations: " + jsonObjectMapper.writeValueAsString(Collections.singleton(reservation)) + ", next: 1050}";
+
+        JSONAssert.assertEquals(expected, result.getResponse()
+                .getContentAsString(), false);
+    }
+
+    @Test
+    public void testStreamReservationsCancelled() throws Exception {
+
+        Mockito.doAnswer(invocation -> {
+            Consumer<ReservationSummary> action = invocation.getArgument(2);
+            action.accept(summary);
+            action.accept(summary);
+            return null;
+        }).when(reservationService).forEachReservation(Mockito.eq(reservation.getEmail()), Mockito.eq(ReservationStatus.CANCELLED), Mockito.any());
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/" + reservation.getEmail() + "/cancelled/stream").accept(
+                MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+        result = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn();
+
+        String expected = jsonObjectMapper.writeValueAsString(Arrays.asList(reservation, reservation));
+
+        JSONAssert.assertEquals(expected, result.getResponse()
+                .getContentAsString(), true);
+    }
+
     @Test
     public void testGetCalendar() throws Exception {
 
@@ -123,28 +208,428 @@ public class ReservationControllerTest {
                 .getContentAsString(), false);
     }
 
+    @Test
+    public void testGetCalendarSendsETag() throws Exception {
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(7L);
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-10T00:00:00").accept(
+                MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertTrue(result.getResponse().getHeader("ETag").matches("\"[0-9a-f]+-2019-02-01-2019-02-10\""));
+        assertTrue(result.getResponse().getHeader("Cache-Control").contains("must-revalidate"));
+    }
+
+    @Test
+    public void testGetCalendarNotModified() throws Exception {
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(7L);
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        String eTag = calendarETag("/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-10T00:00:00");
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-10T00:00:00").accept(
+                MediaType.APPLICATION_JSON).header("If-None-Match", eTag);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals(HttpStatus.NOT_MODIFIED.value(), result.getResponse().getStatus());
+        assertEquals("", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testGetCalendarETagFollowsContentNotVersion() throws Exception {
+
+        String uri = "/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-10T00:00:00";
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        // Two instances numbering their versions on their own still agree on the same availability
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(7L);
+        String eTag = calendarETag(uri);
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(8L);
+        assertEquals(eTag, calendarETag(uri));
+
+        // And never give the same one to different availability under the same version
+        List<Day> days = new ArrayList<>();
+
+        for (int i = 0; i < 30; i++) {
+            days.add(new Day(LocalDate.now().plusDays(i), i == 3 ? 1L : 0L, 30));
+        }
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(new Calendar(days));
+
+        assertNotEquals(eTag, calendarETag(uri));
+    }
+
+    @Test
+    public void testGetDefaultCalendarIsSerializedOncePerVersion() throws Exception {
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(1L, 1L, 2L);
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        String expected = jsonObjectMapper.writeValueAsString(calendar);
+
+        for (int i = 0; i < 3; i++) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                    "/api/reservations/availability").accept(
+                    MediaType.APPLICATION_JSON)).andReturn();
+
+            JSONAssert.assertEquals(expected, result.getResponse()
+                    .getContentAsString(), false);
+        }
+
+        Mockito.verify(reservationService, Mockito.times(2)).getReservationCalendar(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testGetCalendarAsSpots() throws Exception {
+
+        LocalDate from = LocalDate.of(2019, 2, 1);
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(7L);
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(new Calendar(Arrays.asList(
+                        new Day(from, 0L, 200), new Day(from.plusDays(1), 72L, 200), new Day(from.plusDays(2), 200L, 200))));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-03T00:00:00").header(
+                "Accept", "application/json;q=0.5, application/vnd.jurassicpark.availability-spots");
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        // 17928 days since the epoch and 3 days, then 200, 128 and 0 spots, as varints
+        byte[] expected = {(byte) 0x88, (byte) 0x8c, 0x01, 0x03, (byte) 0xc8, 0x01, (byte) 0x80, 0x01, 0x00};
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertEquals("application/vnd.jurassicpark.availability-spots", result.getResponse().getContentType());
+        assertTrue(result.getResponse().getHeader("ETag").endsWith("-2019-02-01-2019-02-03-vnd.jurassicpark.availability-spots\""));
+        assertTrue(result.getResponse().getHeaders("Vary").contains("Accept"));
+        assertTrue(Arrays.equals(expected, result.getResponse().getContentAsByteArray()));
+    }
+
+    @Test
+    public void testGetCalendarAsSpotsNotModifiedVariesByAccept() throws Exception {
+
+        String uri = "/api/reservations/availability?from=2019-02-01T00:00:00&to=2019-02-10T00:00:00";
+        MediaType spots = MediaType.valueOf("application/vnd.jurassicpark.availability-spots");
+
+        Mockito.when(reservationService.getInventoryVersion(Mockito.any(), Mockito.any())).thenReturn(7L);
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(uri).accept(spots)).andReturn();
+
+        String eTag = result.getResponse().getHeader("ETag");
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get(uri).accept(spots)
+                .header("If-None-Match", eTag)).andReturn();
+
+        assertEquals(HttpStatus.NOT_MODIFIED.value(), result.getResponse().getStatus());
+        assertEquals(0, result.getResponse().getContentAsByteArray().length);
+        assertEquals(eTag, result.getResponse().getHeader("ETag"));
+        assertTrue(result.getResponse().getHeaders("Vary").contains("Accept"));
+    }
+
+    @Test
+    public void testGetDefaultCalendarAsFullDays() throws Exception {
+
+        List<Day> days = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            days.add(new Day(LocalDate.now().plusDays(i), i == 1 || i == 8 ? 30L : 3L, 30));
+        }
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(new Calendar(days));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.valueOf("application/vnd.jurassicpark.availability-full-days"));
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        byte[] content = result.getResponse().getContentAsByteArray();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertEquals("application/vnd.jurassicpark.availability-full-days", result.getResponse().getContentType());
+
+        // Epoch day of today takes 3 bytes until 2059, then 10 days and a bitmap of 2 bytes with days 1 and 8 full
+        assertEquals(6, content.length);
+        assertEquals(LocalDate.now().toEpochDay(), (content[0] & 0x7F) | (content[1] & 0x7F) << 7 | (content[2] & 0x7F) << 14);
+        assertEquals(10, content[3]);
+        assertEquals(0b10, content[4]);
+        assertEquals(0b1, content[5]);
+    }
+
+    @Test
+    public void testGetDefaultCalendarGzipped() throws Exception {
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip, deflate");
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals("gzip", result.getResponse().getHeader("Content-Encoding"));
+
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(
+                new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            String expected = jsonObjectMapper.writeValueAsString(calendar);
+
+            JSONAssert.assertEquals(expected, new String(gzipInputStream.readAllBytes(), StandardCharsets.UTF_8), false);
+        }
+    }
+
+    @Test
+    public void testGetDefaultCalendarNotGzippedWhenRefused() throws Exception {
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        String expected = jsonObjectMapper.writeValueAsString(calendar);
+
+        for (String acceptEncoding : new String[]{"gzip;q=0, deflate", "x-gzip", "*;q=0.5, gzip; q=0", "identity"}) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                    "/api/reservations/availability").accept(
+                    MediaType.APPLICATION_JSON).header("Accept-Encoding", acceptEncoding)).andReturn();
+
+            assertEquals(acceptEncoding, null, result.getResponse().getHeader("Content-Encoding"));
+            JSONAssert.assertEquals(expected, result.getResponse().getContentAsString(), false);
+        }
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "br;q=1.0, *;q=0.1")).andReturn();
+
+        assertEquals("gzip", result.getResponse().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testGetDefaultCalendarGzipHasItsOwnETag() throws Exception {
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        MvcResult identity = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON)).andReturn();
+
+        MvcResult gzip = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip")).andReturn();
+
+        String gzipETag = gzip.getResponse().getHeader("ETag");
+
+        assertNotEquals(identity.getResponse().getHeader("ETag"), gzipETag);
+
+        // A cache holding the gzip coding does not get a 304 for the identity one, and the other way round
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("If-None-Match", gzipETag)).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertEquals(identity.getResponse().getHeader("ETag"), result.getResponse().getHeader("ETag"));
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip")
+                .header("If-None-Match", identity.getResponse().getHeader("ETag"))).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertEquals("gzip", result.getResponse().getHeader("Content-Encoding"));
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip")
+                .header("If-None-Match", identity.getResponse().getHeader("ETag") + ", " + gzipETag)).andReturn();
+
+        assertEquals(HttpStatus.NOT_MODIFIED.value(), result.getResponse().getStatus());
+        assertEquals(gzipETag, result.getResponse().getHeader("ETag"));
+    }
+
+    @Test
+    public void testGetDefaultCalendarVariesByAcceptEncoding() throws Exception {
+
+        Mockito.when(
+                reservationService.getReservationCalendar(Mockito.any(), Mockito.any())).thenReturn(calendar);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip")).andReturn();
+
+        assertTrue(result.getResponse().getHeader("Vary").contains("Accept-Encoding"));
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability").accept(
+                MediaType.APPLICATION_JSON).header("Accept-Encoding", "gzip")
+                .header("If-None-Match", result.getResponse().getHeader("ETag"))).andReturn();
+
+        assertEquals(HttpStatus.NOT_MODIFIED.value(), result.getResponse().getStatus());
+        assertEquals(0, result.getResponse().getContentAsByteArray().length);
+        assertTrue(result.getResponse().getHeader("Vary").contains("Accept-Encoding"));
+    }
+
     @Test
     public void testSave() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenReturn(reservation);
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenReturn(CompletableFuture.completedFuture(reservation));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
                 .content(jsonObjectMapper.writeValueAsString(reservation))
                 .contentType(MediaType.APPLICATION_JSON);
 
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+        result = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+    }
+
+    @Test
+    public void testStreamCalendar() throws Exception {
+
+        AvailabilityPublisher.Subscription subscription = Mockito.mock(AvailabilityPublisher.Subscription.class);
+        LocalDate changedDay = LocalDate.now().plusDays(3);
+
+        Mockito.when(
+                availabilityPublisher.subscribe(Mockito.eq(LocalDate.now()), Mockito.eq(LocalDate.now().plusMonths(1)), Mockito.any(AvailabilitySubscriber.class)))
+                .thenAnswer(invocation -> {
+                    AvailabilitySubscriber subscriber = invocation.getArgument(2);
+                    subscriber.snapshot(calendar);
+                    subscriber.changed(Collections.singletonList(new Day(changedDay, 1L, 30)));
+                    subscriber.closed();
+                    return subscription;
+                });
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/reservations/availability/stream")).andReturn();
+
+        assertTrue(result.getRequest().isAsyncStarted());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn();
+
+        String events = result.getResponse().getContentAsString();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertTrue(result.getResponse().getContentType().startsWith(MediaType.TEXT_EVENT_STREAM_VALUE));
+        assertTrue(events.startsWith("event:snapshot\ndata:" + jsonObjectMapper.writeValueAsString(calendar) + "\n\n"));
+        assertTrue(events.contains("event:changed\ndata:[{\"date\":\"" + changedDay + "\""));
+    }
+
+    @Test
+    public void testStreamCalendarWithTooManySubscribers() throws Exception {
+
+        Mockito.when(
+                availabilityPublisher.subscribe(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class), Mockito.any(AvailabilitySubscriber.class)))
+                .thenThrow(new TooManySubscribersException(1));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/reservations/availability/stream")).andReturn();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), result.getResponse().getStatus());
+        assertTrue(result.getResponse().getContentAsString().contains("availability is already streamed to 1 clients"));
+    }
+
+    @Test
+    public void testHold() throws Exception {
+
+        reservation.setHeldUntil(LocalDate.now().atStartOfDay().plusMinutes(5));
+
+        Mockito.when(
+                reservationService.hold(Mockito.any(Reservation.class))).thenReturn(reservation);
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders
+                .post("/api/reservations/holds")
+                .content(jsonObjectMapper.writeValueAsString(reservation))
+                .contentType(MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+        String expected = jsonObjectMapper.writeValueAsString(new Hold(reservation.getToken(), reservation.getHeldUntil()));
+
+        JSONAssert.assertEquals(expected, result.getResponse().getContentAsString(), true);
+    }
+
+    @Test
+    public void testConfirmHold() throws Exception {
+
+        Mockito.when(
+                reservationService.confirmHold(reservation.getToken())).thenReturn(reservation);
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders
+                .post("/api/reservations/holds/" + reservation.getToken() + "/confirm");
+
         MvcResult result = mockMvc.perform(requestBuilder).andReturn();
 
         assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        assertEquals(reservation.getToken(), result.getResponse().getContentAsString());
     }
 
+    @Test
+    public void testConfirmExpiredHold() throws Exception {
+
+        Mockito.when(
+                reservationService.confirmHold(reservation.getToken())).thenThrow(new HoldExpiredException(reservation.getToken()));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders
+                .post("/api/reservations/holds/" + reservation.getToken() + "/confirm");
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals(HttpStatus.GONE.value(), result.getResponse().getStatus());
+        assertTrue(result.getResponse().getContentAsString().contains("Hold not found or expired with id: " + reservation.getToken()));
+    }
+
+    @Test
+    public void testSaveAll() throws Exception {
+
+        Reservation invalidReservation = new Reservation();
+        invalidReservation.setName("Johnn Guerrero");
+        invalidReservation.setEmail("not-an-email");
+        invalidReservation.setArrivalDate(reservation.getArrivalDate());
+        invalidReservation.setDepartureDate(reservation.getDepartureDate());
+
+        Mockito.when(
+                reservationService.saveAll(Mockito.anyList())).thenReturn(Collections.singletonList(new BatchReservationResult(reservation.getToken(), null)));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders
+                .post("/api/reservations/batch")
+                .content(jsonObjectMapper.writeValueAsString(Arrays.asList(invalidReservation, reservation)))
+                .contentType(MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+        JSONAssert.assertEquals("[{error: {status: 400}}, {token: '" + reservation.getToken() + "'}]", result.getResponse()
+                .getContentAsString(), false);
+        assertTrue(result.getResponse().getContentAsString().contains("email: 'not-an-email'"));
+
+        Mockito.verify(reservationService).saveAll(Mockito.argThat(reservations -> reservations.size() == 1));
+    }
 
     @Test
     public void testSaveReservationWithArrivalDateOnThePast() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new BookingInThePastException());
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenThrow(new BookingInThePastException());
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -162,7 +647,7 @@ public class ReservationControllerTest {
     public void testSaveReservationOneDayBeforeArrivalDate() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new BookingTooLateException());
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenThrow(new BookingTooLateException());
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -180,7 +665,7 @@ public class ReservationControllerTest {
     public void testSaveReservationWithMoreThanOneMonthBeforeArrivalDate() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new BookingTooSoonException());
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenThrow(new BookingTooSoonException());
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -198,7 +683,7 @@ public class ReservationControllerTest {
     public void testSaveReservationWithEndDateBeforeStartDate() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new EndDateBeforeStartDateException());
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenThrow(new EndDateBeforeStartDateException());
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -216,7 +701,7 @@ public class ReservationControllerTest {
     public void testSaveReservationExceedingMaxDaysInReservation() throws Exception {
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new MaxDaysExceededException(111));
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenThrow(new MaxDaysExceededException(111));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -236,7 +721,7 @@ public class ReservationControllerTest {
         List<LocalDate> invalidDates = Arrays.asList(LocalDate.now(), LocalDate.now().plusDays(1));
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenThrow(new MaxReservationsPerDayExceededException(invalidDates));
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenReturn(CompletableFuture.failedFuture(new MaxReservationsPerDayExceededException(invalidDates)));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .post("/api/reservations")
@@ -244,12 +729,73 @@ public class ReservationControllerTest {
                 .contentType(MediaType.APPLICATION_JSON);
 
         MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+        result = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn();
 
         assertEquals(HttpStatus.BAD_REQUEST.value(), result.getResponse().getStatus());
 
         assertTrue(result.getResponse().getContentAsString().contains("Sorry, Jurassic Park is full on following day(s): " + invalidDates.stream().map(LocalDate::toString).collect(Collectors.joining(", ")) + ", so we cannot book your reservation"));
     }
 
+    @Test
+    public void testSaveWithMaxReservationsPerDayExceededSuggestsAlternatives() throws Exception {
+
+        LocalDate arrival = LocalDate.now().plusDays(5);
+        AvailableStay alternative = new AvailableStay(arrival.atStartOfDay(), arrival.plusDays(2).atStartOfDay());
+
+        Mockito.when(
+                reservationService.saveAsync(Mockito.any(Reservation.class))).thenReturn(CompletableFuture.failedFuture(
+                        new MaxReservationsPerDayExceededException(Collections.singletonList(LocalDate.now())).withAlternatives(Collections.singletonList(alternative))));
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders
+                .post("/api/reservations")
+                .content(jsonObjectMapper.writeValueAsString(reservation))
+                .contentType(MediaType.APPLICATION_JSON);
+
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+        result = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn();
+
+        assertEquals(HttpStatus.BAD_REQUEST.value(), result.getResponse().getStatus());
+
+        String expected = "{\"alternatives\":" + jsonObjectMapper.writeValueAsString(Collections.singletonList(alternative)) + "}";
+
+        JSONAssert.assertEquals(expected, result.getResponse().getContentAsString(), false);
+    }
+
+    @Test
+    public void testSearchAvailability() throws Exception {
+
+        LocalDate arrival = LocalDate.now().plusDays(5);
+        List<AvailableStay> stays = Collections.singletonList(new AvailableStay(arrival.atStartOfDay(), arrival.plusDays(2).atStartOfDay()));
+
+        Mockito.when(
+                reservationService.findAvailableStays(LocalDate.MIN, LocalDate.MAX, 2, 3, 1)).thenReturn(stays);
+        Mockito.when(
+                reservationService.findAvailableStays(LocalDate.of(2019, 2, 1), LocalDate.of(2019, 2, 10), 2, 1, Integer.MAX_VALUE)).thenReturn(stays);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability/search?nights=2&spots=3")).andReturn();
+
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        JSONAssert.assertEquals(jsonObjectMapper.writeValueAsString(stays), result.getResponse().getContentAsString(), true);
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability/search?nights=2&from=2019-02-01T00:00:00&to=2019-02-10T00:00:00&all=true")).andReturn();
+
+        JSONAssert.assertEquals(jsonObjectMapper.writeValueAsString(stays), result.getResponse().getContentAsString(), true);
+    }
+
+    @Test
+    public void testSearchAvailabilityLongerThanAllowed() throws Exception {
+
+        Mockito.when(
+                reservationService.findAvailableStays(Mockito.any(), Mockito.any(), Mockito.eq(5), Mockito.anyInt(), Mockito.anyInt())).thenThrow(new MaxDaysExceededException(3));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(
+                "/api/reservations/availability/search?nights=5")).andReturn();
+
+        assertEquals(HttpStatus.BAD_REQUEST.value(), result.getResponse().getStatus());
+    }
+
 
 
     @Test
@@ -259,7 +805,7 @@ public class ReservationControllerTest {
                 reservationService.findByToken(Mockito.anyString())).thenReturn(reservation);
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenReturn(reservation);
+                reservationService.modify(Mockito.any(Reservation.class))).thenReturn(reservation);
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .put("/api/reservations/"+reservation.getToken())
@@ -278,7 +824,7 @@ public class ReservationControllerTest {
                 reservationService.findByToken(Mockito.anyString())).thenReturn(null);
 
         Mockito.when(
-                reservationService.save(Mockito.any(Reservation.class))).thenReturn(reservation);
+                reservationService.modify(Mockito.any(Reservation.class))).thenReturn(reservation);
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders
                 .put("/api/reservations/"+reservation.getToken())
@@ -323,5 +869,8 @@ public class ReservationControllerTest {
 
     }
 
-
+    private String calendarETag(String uri) throws Exception {
+        return mockMvc.perform(MockMvcRequestBuilders.get(uri).accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader("ETag");
+    }
 }
@@ -0,0 +1,53 @@
+package com.upgrade.jurassicpark.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CalendarSerializerTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+
+    @Test
+    public void testSameJsonAsTheDaysAcrossMonthsLeapDaysAndYears() throws Exception {
+
+        // From the end of February in a leap year to past the next new year
+        LocalDate from = LocalDate.of(2020, 2, 27);
+        int[] reservationsMade = new int[320];
+        List<Day> days = new ArrayList<>();
+
+        for (int i = 0; i < reservationsMade.length; i++) {
+            reservationsMade[i] = i % 31;
+            days.add(new Day(from.plusDays(i), (long) reservationsMade[i], 30));
+        }
+
+        Calendar calendar = new Calendar(from, reservationsMade, 30);
+
+        assertEquals(objectMapper.writeValueAsString(Collections.singletonMap("days", days)), objectMapper.writeValueAsString(calendar));
+        assertEquals(objectMapper.writeValueAsString(Collections.singletonMap("days", days)), objectMapper.writeValueAsString(new Calendar(days)));
+
+    }
+
+    @Test
+    public void testEmptyCalendar() throws Exception {
+
+        assertEquals("{\"days\":[]}", objectMapper.writeValueAsString(new Calendar(LocalDate.now(), new int[0], 30)));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDaysMustBeConsecutive() {
+
+        new Calendar(List.of(new Day(LocalDate.now(), 0L, 30), new Day(LocalDate.now().plusDays(2), 0L, 30)));
+
+    }
+}
@@ -0,0 +1,30 @@
+package com.upgrade.jurassicpark.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every SQL statement Hibernate prepares, so tests can look at the statements behind a repository method.
+ */
+public class CapturedStatements implements StatementInspector {
+
+    private static final List<String> statements = new ArrayList<>();
+
+    @Override
+    public String inspect(String sql) {
+        synchronized (statements) {
+            statements.add(sql);
+        }
+        return sql;
+    }
+
+    static List<String> drain() {
+        synchronized (statements) {
+            List<String> drained = new ArrayList<>(statements);
+            statements.clear();
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.upgrade.jurassicpark.repository;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Migrates an empty database up to the day_capacity backfill, seeds reservations as they were before it and checks
+ * the counts it leaves behind.
+ */
+public class DayCapacityBackfillTest {
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:backfill", "sa", "sa", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (String version : new String[]{"1.0", "1.1", "1.2", "1.3", "1.4"}) {
+            update(version);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    public void testBackfillCountsActiveReservationsPerDay() throws Exception {
+
+        LocalDate today = LocalDate.now();
+        insertReservation(today, today.plusDays(2), "A");
+        insertReservation(today.plusDays(1), today.plusDays(3), "A");
+        insertReservation(today, today.plusDays(3), "C");
+
+        // Left over from the database booking mode, the backfill replaces it
+        jdbcTemplate.update("insert into day_capacity (day, booked, max) values (?, 5, 30)", Date.valueOf(today.plusDays(10)));
+
+        update("1.5");
+
+        Map<LocalDate, Integer> expected = new HashMap<>();
+        expected.put(today, 1);
+        expected.put(today.plusDays(1), 2);
+        expected.put(today.plusDays(2), 2);
+        expected.put(today.plusDays(3), 1);
+
+        Map<LocalDate, Integer> booked = new HashMap<>();
+
+        jdbcTemplate.query("select day, booked, max from day_capacity", resultSet -> {
+            assertEquals(30, resultSet.getInt("max"));
+            booked.put(resultSet.getDate("day").toLocalDate(), resultSet.getInt("booked"));
+        });
+
+        assertEquals(expected, booked);
+
+    }
+
+    private void update(String version) throws Exception {
+        // The way Spring Boot runs the changelog, which picks the first of the main and test copies
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-" + version + ".xml");
+        liquibase.setChangeLogParameters(Collections.singletonMap("max-reservations-per-day", "30"));
+        liquibase.afterPropertiesSet();
+    }
+
+    private void insertReservation(LocalDate arrival, LocalDate departure, String status) {
+        jdbcTemplate.update("insert into reservation (token, name, email, arrival_date, departure_date, status) values (random_uuid(), 'Johnn Guerrero', 'john6832@gmail.com', ?, ?, ?)",
+                Timestamp.valueOf(arrival.atStartOfDay()), Timestamp.valueOf(departure.atStartOfDay()), status);
+    }
+}
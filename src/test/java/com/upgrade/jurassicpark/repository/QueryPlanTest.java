@@ -0,0 +1,258 @@
+package com.upgrade.jurassicpark.repository;
+
+import com.upgrade.jurassicpark.JurassicparkApplication;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs H2 EXPLAIN on the SQL generated for every repository query and fails when any of them scans a whole table,
+ * so a query or schema change cannot silently lose its index.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = {JurassicparkApplication.class})
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.upgrade.jurassicpark.repository.CapturedStatements")
+public class QueryPlanTest {
+
+    // H2 names the index used for every table access, followed by the conditions it seeks on. Without conditions
+    // the whole table is read, either as a tableScan or in the order of an index.
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\*\\s*PUBLIC\\.\\w+(\\.tableScan)?\\s*\\*/");
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private DayCapacityRepository dayCapacityRepository;
+
+    @Autowired
+    private ArchivedReservationRepository archivedReservationRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final LocalDate from = LocalDate.now().plusDays(4);
+
+    private final LocalDate to = LocalDate.now().plusDays(6);
+
+    @Before
+    public void setUp() {
+        CapturedStatements.drain();
+    }
+
+    @Test
+    public void testFindByToken() {
+        reservationRepository.findByToken("2d7428a6-b58c-4008-8575-f05549f16316");
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindById() {
+        reservationRepository.findById(1L);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindByTokenForUpdate() {
+        reservationRepository.findByTokenForUpdate("2d7428a6-b58c-4008-8575-f05549f16316");
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByReservationStatus() {
+        reservationRepository.findAllByReservationStatus(ReservationStatus.HELD);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByEmailAndReservationStatus() {
+        reservationRepository.findAllByEmailAndReservationStatus("john6832@gmail.com", ReservationStatus.ACTIVE);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByEmailAndReservationStatusAfter() {
+        reservationRepository.findAllByEmailAndReservationStatusAfter("john6832@gmail.com", ReservationStatus.ACTIVE, 1000L, PageRequest.of(0, 100));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testStreamAllByEmailAndReservationStatus() {
+        try (Stream<ReservationSummary> reservations = reservationRepository.streamAllByEmailAndReservationStatus("john6832@gmail.com", ReservationStatus.ACTIVE)) {
+            reservations.count();
+        }
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByReservationStatusForUpdate() {
+        reservationRepository.findAllByReservationStatusForUpdate(ReservationStatus.CANCELLED, PageRequest.of(0, 500));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByDepartureDateBeforeForUpdate() {
+        reservationRepository.findAllByDepartureDateBeforeForUpdate(from.atStartOfDay(), PageRequest.of(0, 500));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testDeleteAllByIdIn() {
+        reservationRepository.deleteAllByIdIn(Arrays.asList(1L, 2L));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testCopyFromReservations() {
+        archivedReservationRepository.copyFromReservations(Arrays.asList(1L, 2L));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllArchivedByEmailAndReservationStatus() {
+        archivedReservationRepository.findAllByEmailAndReservationStatus("john6832@gmail.com", ReservationStatus.CANCELLED);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testCountActiveReservationsPerDay() {
+        reservationRepository.countActiveReservationsPerDay(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByDayBetweenOrderByDay() {
+        dayCapacityRepository.findAllByDayBetweenOrderByDay(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindBookedByDayBetween() {
+        dayCapacityRepository.findBookedByDayBetween(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testClaim() {
+        dayCapacityRepository.claim(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testRelease() {
+        dayCapacityRepository.release(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testFindAllByDayBetweenForUpdate() {
+        dayCapacityRepository.findAllByDayBetweenForUpdate(from, to);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testMove() {
+        dayCapacityRepository.move(from, to, from.plusDays(1), to.plusDays(1), from, to.plusDays(1));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testAdd() {
+        dayCapacityRepository.add(from, to, 1);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testShift() {
+        dayCapacityRepository.shift(from, to, from.plusDays(1), to.plusDays(1), from, to.plusDays(1));
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testUpdateBooked() {
+        dayCapacityRepository.updateBooked(from, 1);
+
+        assertNoTableScan();
+    }
+
+    @Test
+    public void testUpdateMaxReservations() {
+        dayCapacityRepository.updateMaxReservations(from, 30);
+
+        assertNoTableScan();
+    }
+
+    private void assertNoTableScan() {
+        entityManager.flush();
+
+        List<String> statements = CapturedStatements.drain();
+
+        assertFalse("No statement was captured", statements.isEmpty());
+
+        for (String sql : statements) {
+            String plan = explain(sql);
+
+            assertTrue("Unexpected plan for " + sql + ":\n" + plan, plan.toLowerCase().matches("(?s)(select|update|insert|delete).*"));
+            assertFalse("Table scan in plan for " + sql + ":\n" + plan, FULL_SCAN.matcher(plan).find());
+        }
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.execute("EXPLAIN " + sql, (PreparedStatement statement) -> {
+            // The plan is chosen when the statement is prepared, the parameter values do not change it
+            for (int i = 1; i <= statement.getParameterMetaData().getParameterCount(); i++) {
+                statement.setObject(i, null);
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.upgrade.jurassicpark.repository;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migrates a database holding reservations with identity ids onto the reservation sequence and checks the ids it
+ * hands out next stay clear of them.
+ */
+public class ReservationSequenceMigrationTest {
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:sequence", "sa", "sa", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (String version : new String[]{"1.0", "1.1"}) {
+            update(version);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    public void testSequenceStartsAboveExistingIds() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            insertReservation();
+        }
+
+        jdbcTemplate.update("insert into reservation (id, token, name, email, arrival_date, departure_date, reservation_status_id) values (120, random_uuid(), 'Johnn Guerrero', 'john6832@gmail.com', ?, ?, 1)",
+                Timestamp.valueOf(LocalDate.now().atStartOfDay()), Timestamp.valueOf(LocalDate.now().plusDays(2).atStartOfDay()));
+
+        update("1.2");
+
+        // Hibernate uses the 50 ids ending at the value it reads
+        long nextValue = jdbcTemplate.queryForObject("select next value for reservation_seq", Long.class);
+
+        assertTrue(nextValue - 49 > 120);
+
+    }
+
+    private void update(String version) throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-" + version + ".xml");
+        liquibase.setChangeLogParameters(Collections.singletonMap("max-reservations-per-day", "30"));
+        liquibase.afterPropertiesSet();
+    }
+
+    private void insertReservation() {
+        jdbcTemplate.update("insert into reservation (token, name, email, arrival_date, departure_date, reservation_status_id) values (random_uuid(), 'Johnn Guerrero', 'john6832@gmail.com', ?, ?, 1)",
+                Timestamp.valueOf(LocalDate.now().atStartOfDay()), Timestamp.valueOf(LocalDate.now().plusDays(2).atStartOfDay()));
+    }
+}
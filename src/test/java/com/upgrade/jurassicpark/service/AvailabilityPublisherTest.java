@@ -0,0 +1,269 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.exception.TooManySubscribersException;
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityPublisherTest {
+
+    private final LocalDate today = LocalDate.now();
+
+    private OccupancyIndex occupancyIndex;
+
+    private AvailabilityPublisher availabilityPublisher;
+
+    @Before
+    public void setUp() {
+        DayCapacityRepository dayCapacityRepository = Mockito.mock(DayCapacityRepository.class);
+
+        Mockito.when(dayCapacityRepository.bookedPerDay(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenAnswer(invocation -> new int[(int) ChronoUnit.DAYS.between(invocation.<LocalDate>getArgument(0), invocation.<LocalDate>getArgument(1)) + 1]);
+
+        occupancyIndex = new OccupancyIndex(dayCapacityRepository);
+        occupancyIndex.load();
+
+        // A 100ms coalescing window, and subscribers more than 300ms behind are dropped
+        availabilityPublisher = new AvailabilityPublisher(occupancyIndex, 30, 2, 100, 300);
+        availabilityPublisher.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        availabilityPublisher.stop();
+    }
+
+    @Test
+    public void testSnapshotThenOnlyTheChangedDays() throws Exception {
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        availabilityPublisher.subscribe(today.plusDays(1), today.plusDays(3), subscriber);
+
+        Calendar snapshot = (Calendar) subscriber.next();
+
+        assertEquals(3, snapshot.getDays().size());
+        assertEquals(today.plusDays(1), snapshot.getDays().get(0).getDate());
+
+        occupancyIndex.add(today.plusDays(2), today.plusDays(2), 1);
+
+        List<Day> changed = subscriber.nextChange();
+
+        assertEquals(1, changed.size());
+        assertEquals(today.plusDays(2), changed.get(0).getDate());
+        assertEquals(Long.valueOf(1), changed.get(0).getReservationsMade());
+
+        // Days outside the range of the subscription are never sent
+        occupancyIndex.add(today.plusDays(10), today.plusDays(10), 1);
+
+        assertNull(subscriber.poll(300));
+
+    }
+
+    @Test
+    public void testChangesWithinTheWindowAreCoalesced() throws Exception {
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        availabilityPublisher.subscribe(today, today.plusDays(9), subscriber);
+        subscriber.next();
+
+        // Taken and given back within the window, the first day never changed as far as subscribers can tell
+        occupancyIndex.add(today.plusDays(1), today.plusDays(1), 1);
+        occupancyIndex.add(today.plusDays(1), today.plusDays(1), -1);
+        occupancyIndex.add(today.plusDays(4), today.plusDays(5), 1);
+        occupancyIndex.add(today.plusDays(5), today.plusDays(5), 1);
+
+        List<Day> changed = subscriber.nextChange();
+
+        assertEquals(List.of(today.plusDays(4), today.plusDays(5)), changed.stream().map(Day::getDate).collect(Collectors.toList()));
+        assertEquals(Long.valueOf(2), changed.get(1).getReservationsMade());
+        assertNull(subscriber.poll(300));
+
+    }
+
+    @Test
+    public void testSlowSubscriberIsDropped() throws Exception {
+
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        RecordingSubscriber fast = new RecordingSubscriber();
+
+        availabilityPublisher.subscribe(today, today.plusDays(9), new RecordingSubscriber() {
+
+            @Override
+            public void changed(List<Day> days) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void closed() {
+                closed.countDown();
+            }
+        });
+
+        availabilityPublisher.subscribe(today, today.plusDays(9), fast);
+        fast.next();
+
+        occupancyIndex.add(today.plusDays(3), today.plusDays(3), 1);
+
+        // The stuck subscriber does not hold back the others
+        assertEquals(today.plusDays(3), fast.nextChange().get(0).getDate());
+
+        occupancyIndex.add(today.plusDays(4), today.plusDays(4), 1);
+        assertEquals(today.plusDays(4), fast.nextChange().get(0).getDate());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+
+        while (availabilityPublisher.getSubscriberCount() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, availabilityPublisher.getSubscriberCount());
+
+        // Told it was dropped once the call it was stuck in returns
+        stuck.countDown();
+
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+
+    }
+
+    @Test(expected = TooManySubscribersException.class)
+    public void testSubscribersAreCapped() throws Exception {
+
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+
+    }
+
+    @Test
+    public void testSubscribersArrivingTogetherAreCapped() throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger subscribed = new AtomicInteger();
+
+        for (int i = 0; i < 8; i++) {
+            executorService.submit(() -> {
+                start.await();
+
+                try {
+                    availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+                    subscribed.incrementAndGet();
+                } catch (TooManySubscribersException e) {
+                    // Over the cap
+                }
+
+                return null;
+            });
+        }
+
+        start.countDown();
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, subscribed.get());
+        assertEquals(2, availabilityPublisher.getSubscriberCount());
+
+    }
+
+    @Test
+    public void testCancellingFreesTheSlot() throws Exception {
+
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber()).cancel();
+        availabilityPublisher.subscribe(today, today, new RecordingSubscriber());
+
+        assertEquals(2, availabilityPublisher.getSubscriberCount());
+
+    }
+
+    @Test
+    public void testChangesInATransactionAreSignalledOnceCommitted() {
+
+        AtomicInteger signals = new AtomicInteger();
+        occupancyIndex.addListener(signals::incrementAndGet);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        try {
+            occupancyIndex.add(today.plusDays(2), today.plusDays(2), 1);
+
+            // Could still roll back
+            assertEquals(0, signals.get());
+
+            TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+
+            assertEquals(1, signals.get());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+    }
+
+    private static class RecordingSubscriber implements AvailabilitySubscriber {
+
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void snapshot(Calendar calendar) {
+            events.add(calendar);
+        }
+
+        @Override
+        public void changed(List<Day> days) {
+            events.add(days);
+        }
+
+        @Override
+        public void heartbeat() throws IOException {
+        }
+
+        @Override
+        public void closed() {
+        }
+
+        Object poll(long millis) throws InterruptedException {
+            return events.poll(millis, TimeUnit.MILLISECONDS);
+        }
+
+        Object next() throws InterruptedException {
+            Object event = poll(2000);
+            assertTrue("No event received", event != null);
+            return event;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Day> nextChange() throws InterruptedException {
+            return (List<Day>) next();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BookingSequencerTest {
+
+    private final LocalDate today = LocalDate.now();
+
+    private final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    private final DistributionSummary batchSizeSummary = DistributionSummary.builder("batch.size").register(new SimpleMeterRegistry());
+
+    private final BookingSequencer bookingSequencer = new BookingSequencer(16, 4, batch -> {
+        batchSizes.add(batch.size());
+
+        if (batchSizes.size() == 1) {
+            firstBatchStarted.countDown();
+            await(releaseFirstBatch);
+        }
+
+        batch.forEach(booking -> booking.getFuture().complete(booking.getReservation()));
+    }, batchSizeSummary);
+
+    @After
+    public void tearDown() throws Exception {
+        bookingSequencer.stop();
+    }
+
+    @Test
+    public void testBookingsWaitingInTheQueueAreTakenTogether() throws Exception {
+
+        bookingSequencer.start();
+
+        CompletableFuture<Reservation> first = bookingSequencer.submit(new Reservation(), today, today);
+        assertTrue(firstBatchStarted.await(1, TimeUnit.SECONDS));
+
+        // Queued while the writer is busy, so they are handed over in batches of at most 4
+        CompletableFuture<?>[] waiting = new CompletableFuture<?>[6];
+
+        for (int i = 0; i < waiting.length; i++) {
+            waiting[i] = bookingSequencer.submit(new Reservation(), today, today);
+        }
+
+        assertEquals(6, bookingSequencer.getQueueDepth());
+
+        releaseFirstBatch.countDown();
+
+        first.get(1, TimeUnit.SECONDS);
+        CompletableFuture.allOf(waiting).get(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 4, 2), batchSizes);
+
+        // Callers are answered before the writer counts the batch, stopping waits for it to finish counting
+        bookingSequencer.stop();
+
+        assertEquals(3, bookingSequencer.getBatchCount());
+        assertEquals(7, bookingSequencer.getBookingCount());
+
+        // Every batch is recorded, not only the last one
+        assertEquals(3, batchSizeSummary.count());
+        assertEquals(7, batchSizeSummary.totalAmount(), 0);
+        assertEquals(4, batchSizeSummary.max(), 0);
+
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testBookingsAreRejectedOnceStopped() throws Exception {
+
+        bookingSequencer.start();
+        bookingSequencer.stop();
+
+        bookingSequencer.submit(new Reservation(), today, today).get(1, TimeUnit.SECONDS);
+
+    }
+
+    @Test
+    public void testBookingsLeftInTheQueueAreFailedOnStop() throws Exception {
+
+        // Never started, so stopping finds the writer gone with bookings still queued
+        CompletableFuture<Reservation> queued = bookingSequencer.submit(new Reservation(), today, today);
+
+        bookingSequencer.stop();
+
+        try {
+            queued.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(0, bookingSequencer.getQueueDepth());
+
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
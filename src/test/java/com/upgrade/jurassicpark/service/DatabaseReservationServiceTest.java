@@ -0,0 +1,67 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.BatchReservationResult;
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the whole reservation service suite with capacity claimed in the day_capacity table.
+ */
+@TestPropertySource(properties = "jurassic-world.booking-mode=database")
+public class DatabaseReservationServiceTest extends ReservationServiceTest {
+
+    @Autowired
+    private ReservationServiceImpl reservationService;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private DayCapacityRepository dayCapacityRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testSaveAllRejectsOnlyTheStayItCannotClaim() throws Exception {
+
+        LocalDate today = LocalDate.now();
+
+        // A day going missing would leave the claim of the stay over it partial
+        jdbcTemplate.update("delete from day_capacity where day = ?", Date.valueOf(today.plusDays(11)));
+
+        List<BatchReservationResult> results = reservationService.saveAll(Arrays.asList(
+                newReservation(today.plusDays(4), today.plusDays(6)),
+                newReservation(today.plusDays(10), today.plusDays(12)),
+                newReservation(today.plusDays(20), today.plusDays(21))));
+
+        assertNotNull(results.get(0).getToken());
+        assertNull(results.get(1).getToken());
+        assertEquals(HttpStatus.CONFLICT.value(), results.get(1).getError().getStatus());
+        assertNotNull(results.get(2).getToken());
+
+        assertNotNull(reservationRepository.findByToken(results.get(0).getToken()));
+        assertNotNull(reservationRepository.findByToken(results.get(2).getToken()));
+
+        int[] bookedPerDay = dayCapacityRepository.bookedPerDay(today, today.plusDays(21));
+
+        assertEquals(1, bookedPerDay[4]);
+        assertEquals(0, bookedPerDay[10]);
+        assertEquals(0, bookedPerDay[12]);
+        assertEquals(1, bookedPerDay[20]);
+    }
+}
@@ -0,0 +1,122 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.JurassicparkApplication;
+import com.upgrade.jurassicpark.model.Calendar;
+import com.upgrade.jurassicpark.model.Day;
+import com.upgrade.jurassicpark.model.Reservation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Two application instances booking against the same file-mode H2 database, as two replicas behind a load
+ * balancer would, must never overbook a day between them.
+ */
+public class DayCapacityReplicaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ConfigurableApplicationContext> replicas = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        String url = "jdbc:h2:file:" + folder.getRoot().getAbsolutePath() + "/jurassic-park";
+
+        for (int i = 0; i < 2; i++) {
+            replicas.add(new SpringApplicationBuilder(JurassicparkApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .run(
+                            "--spring.datasource.url=" + url,
+                            "--spring.jmx.enabled=false",
+                            "--jurassic-world.booking-mode=database"));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        replicas.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void testConcurrentSaveOnTwoReplicasWithMaxReservationsPerDayExceeded() throws Exception {
+
+        // Booking 35 reservations for the same dates on alternating replicas
+        // 30 of them should be accepted, 5 of them should be rejected
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        for (int i = 0; i < 35; i++) {
+            Reservation reservation = new Reservation();
+            reservation.setName("Johnn Guerrero");
+            reservation.setEmail("john6832@gmail.com");
+            reservation.setArrivalDate(LocalDate.now().plusDays(4).atStartOfDay());
+            reservation.setDepartureDate(LocalDate.now().plusDays(6).atStartOfDay());
+
+            executorService.submit(new SaveReservationTask(replicas.get(i % 2).getBean(ReservationServiceImpl.class), reservation));
+        }
+
+        executorService.shutdown();
+        executorService.awaitTermination(30, TimeUnit.SECONDS);
+
+        for (ConfigurableApplicationContext replica : replicas) {
+            assertEquals(30, replica.getBean(ReservationServiceImpl.class).findAllReservationsActive("john6832@gmail.com").size());
+        }
+
+    }
+
+    @Test
+    public void testAvailabilityShowsBookingsOfTheOtherReplica() throws Exception {
+
+        ReservationServiceImpl booking = replicas.get(0).getBean(ReservationServiceImpl.class);
+        ReservationServiceImpl reading = replicas.get(1).getBean(ReservationServiceImpl.class);
+
+        LocalDate arrival = LocalDate.now().plusDays(4);
+        LocalDateTime from = arrival.atStartOfDay();
+        LocalDateTime to = arrival.plusDays(2).atStartOfDay();
+
+        long version = reading.getInventoryVersion(from, to);
+
+        for (int i = 0; i < 30; i++) {
+            Reservation reservation = new Reservation();
+            reservation.setName("Johnn Guerrero");
+            reservation.setEmail("john6832@gmail.com");
+            reservation.setArrivalDate(from);
+            reservation.setDepartureDate(arrival.plusDays(1).atStartOfDay());
+
+            booking.save(reservation);
+        }
+
+        // Done every second in the background, run right away here
+        reading.refreshInventory();
+
+        assertNotEquals(version, reading.getInventoryVersion(from, to));
+
+        Calendar calendar = reading.getReservationCalendar(from, to);
+        assertEquals(Arrays.asList(0, 0, 30), calendar.getDays().stream().map(Day::getAvailableSpots).collect(Collectors.toList()));
+
+        // The stays take their departure day too, the first one that fits starts after the two full days
+        assertEquals(Arrays.asList(arrival.plusDays(2)), reading.findAvailableStays(arrival.minusDays(1), arrival.plusDays(2), 1, 1, Integer.MAX_VALUE).stream()
+                .map(stay -> stay.getArrivalDate().toLocalDate())
+                .collect(Collectors.toList()));
+
+    }
+}
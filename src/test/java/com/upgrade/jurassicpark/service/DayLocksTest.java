@@ -0,0 +1,79 @@
+package com.upgrade.jurassicpark.service;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.fail;
+
+public class DayLocksTest {
+
+    private final DayLocks dayLocks = new DayLocks(64);
+
+    private final LocalDate today = LocalDate.now();
+
+    @Test
+    public void testDisjointRangesDoNotBlock() throws Exception {
+
+        dayLocks.lock(today, today.plusDays(2));
+
+        try {
+            CompletableFuture.runAsync(() -> {
+                dayLocks.lock(today.plusDays(3), today.plusDays(5));
+                dayLocks.unlock(today.plusDays(3), today.plusDays(5));
+            }).get(1, TimeUnit.SECONDS);
+        } finally {
+            dayLocks.unlock(today, today.plusDays(2));
+        }
+
+    }
+
+    @Test
+    public void testOverlappingRangesBlock() throws Exception {
+
+        dayLocks.lock(today, today.plusDays(2));
+
+        CompletableFuture<Void> overlapping = CompletableFuture.runAsync(() -> {
+            dayLocks.lock(today.plusDays(2), today.plusDays(4));
+            dayLocks.unlock(today.plusDays(2), today.plusDays(4));
+        });
+
+        try {
+            overlapping.get(200, TimeUnit.MILLISECONDS);
+            fail("Range sharing a locked day should wait");
+        } catch (TimeoutException e) {
+            // expected, the second range waits for the shared day
+        } finally {
+            dayLocks.unlock(today, today.plusDays(2));
+        }
+
+        overlapping.get(1, TimeUnit.SECONDS);
+
+    }
+
+    @Test
+    public void testRangesWrappingAroundStripesDoNotDeadlock() throws Exception {
+
+        // Both ranges hold stripes 63 and 0, but reach them in opposite date order
+        LocalDate first = LocalDate.ofEpochDay(64 * 1000 + 63);
+
+        CompletableFuture<?>[] bookings = new CompletableFuture<?>[8];
+
+        for (int i = 0; i < bookings.length; i++) {
+            LocalDate from = i % 2 == 0 ? first : first.plusDays(63);
+
+            bookings[i] = CompletableFuture.runAsync(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    dayLocks.lock(from, from.plusDays(2));
+                    dayLocks.unlock(from, from.plusDays(2));
+                }
+            });
+        }
+
+        CompletableFuture.allOf(bookings).get(10, TimeUnit.SECONDS);
+
+    }
+}
@@ -0,0 +1,109 @@
+package com.upgrade.jurassicpark.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimingWheelTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // 8 ticks of 10ms, so a delay beyond 80ms waits for more than one turn of the wheel
+    private final HashedTimingWheel timingWheel = new HashedTimingWheel("test-wheel", 10, TimeUnit.MILLISECONDS, 8, executor);
+
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        timingWheel.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTasksRunInDeadlineOrderOnceTheirDelayElapsed() throws Exception {
+
+        CountDownLatch done = new CountDownLatch(3);
+        long startedAt = System.nanoTime();
+
+        timingWheel.start();
+
+        timingWheel.schedule(() -> { ran.add("late"); done.countDown(); }, 250, TimeUnit.MILLISECONDS);
+        timingWheel.schedule(() -> { ran.add("soon"); done.countDown(); }, 20, TimeUnit.MILLISECONDS);
+        timingWheel.schedule(() -> { ran.add("next turn"); done.countDown(); }, 120, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+
+        assertEquals(List.of("soon", "next turn", "late"), ran);
+        assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(250));
+
+    }
+
+    @Test
+    public void testCancelledTasksNeverRun() throws Exception {
+
+        CountDownLatch done = new CountDownLatch(1);
+
+        timingWheel.start();
+
+        HashedTimingWheel.Timeout cancelled = timingWheel.schedule(() -> ran.add("cancelled"), 30, TimeUnit.MILLISECONDS);
+        timingWheel.schedule(() -> { ran.add("kept"); done.countDown(); }, 60, TimeUnit.MILLISECONDS);
+
+        cancelled.cancel();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(List.of("kept"), ran);
+
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTheWheel() throws Exception {
+
+        CountDownLatch done = new CountDownLatch(1);
+
+        timingWheel.start();
+
+        timingWheel.schedule(() -> { throw new IllegalStateException("Expected"); }, 0, TimeUnit.MILLISECONDS);
+        timingWheel.schedule(done::countDown, 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+    }
+
+    @Test
+    public void testSlowTaskDoesNotHoldBackTheNextTicks() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        timingWheel.start();
+
+        timingWheel.schedule(() -> await(release), 0, TimeUnit.MILLISECONDS);
+        timingWheel.schedule(done::countDown, 30, TimeUnit.MILLISECONDS);
+
+        try {
+            // Still blocked, the later task runs on its own tick all the same
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
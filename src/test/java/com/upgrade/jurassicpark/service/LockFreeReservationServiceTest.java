@@ -0,0 +1,10 @@
+package com.upgrade.jurassicpark.service;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the whole reservation service suite with capacity claimed through compare-and-set instead of day locks.
+ */
+@TestPropertySource(properties = "jurassic-world.booking-mode=lock-free")
+public class LockFreeReservationServiceTest extends ReservationServiceTest {
+}
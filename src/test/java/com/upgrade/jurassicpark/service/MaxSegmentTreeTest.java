@@ -0,0 +1,56 @@
+package com.upgrade.jurassicpark.service;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MaxSegmentTreeTest {
+
+    @Test
+    public void testFirstAboveFindsTheFirstValueOverTheThreshold() {
+
+        MaxSegmentTree tree = new MaxSegmentTree(5);
+
+        tree.set(1, 30);
+        tree.set(3, 12);
+
+        assertEquals(1, tree.firstAbove(0, 10));
+        assertEquals(3, tree.firstAbove(2, 10));
+        assertEquals(1, tree.firstAbove(0, 12));
+        assertEquals(5, tree.firstAbove(2, 12));
+        assertEquals(5, tree.firstAbove(5, 0));
+
+        tree.set(1, 0);
+
+        assertEquals(3, tree.firstAbove(0, 10));
+        assertEquals(0, tree.get(1));
+
+    }
+
+    @Test
+    public void testSameAnswersAsAScan() {
+
+        Random random = new Random(42);
+        int[] values = new int[64];
+        MaxSegmentTree tree = new MaxSegmentTree(values.length);
+
+        for (int round = 0; round < 2000; round++) {
+            int index = random.nextInt(values.length);
+            values[index] = random.nextInt(31);
+            tree.set(index, values[index]);
+
+            int from = random.nextInt(values.length + 1);
+            int threshold = random.nextInt(31);
+            int expected = from;
+
+            while (expected < values.length && values[expected] <= threshold) {
+                expected++;
+            }
+
+            assertEquals(expected, tree.firstAbove(from, threshold));
+        }
+
+    }
+}
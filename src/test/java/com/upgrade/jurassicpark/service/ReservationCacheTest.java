@@ -0,0 +1,160 @@
+package com.upgrade.jurassicpark.service;
+
+import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationStatus;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ReservationCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final ReservationCache reservationCache = new ReservationCache(true, 2, TimeUnit.SECONDS.toNanos(10), now::get);
+
+    @Test
+    public void testGetReturnsCopies() {
+
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), reservationCache.stamp("a"));
+
+        reservationCache.get("a").setReservationStatus(ReservationStatus.CANCELLED);
+
+        assertEquals(ReservationStatus.ACTIVE, reservationCache.get("a").getReservationStatus());
+        assertEquals(2, reservationCache.getHits());
+
+    }
+
+    @Test
+    public void testGetKeepsHeldUntil() {
+
+        LocalDateTime heldUntil = LocalDateTime.now().plusMinutes(5);
+        Reservation held = reservation("a", ReservationStatus.HELD);
+        held.setHeldUntil(heldUntil);
+
+        reservationCache.putIfUnchanged(held, reservationCache.stamp("a"));
+
+        assertEquals(ReservationStatus.HELD, reservationCache.get("a").getReservationStatus());
+        assertEquals(heldUntil, reservationCache.get("a").getHeldUntil());
+
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), reservationCache.stamp("a"));
+        reservationCache.putIfUnchanged(reservation("b", ReservationStatus.ACTIVE), reservationCache.stamp("b"));
+        reservationCache.get("a");
+        reservationCache.putIfUnchanged(reservation("c", ReservationStatus.ACTIVE), reservationCache.stamp("c"));
+
+        assertNotNull(reservationCache.get("a"));
+        assertNull(reservationCache.get("b"));
+        assertNotNull(reservationCache.get("c"));
+        assertEquals(1, reservationCache.getEvictions());
+        assertEquals(1, reservationCache.getMisses());
+
+    }
+
+    @Test
+    public void testEvictsExpiredEntries() {
+
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), reservationCache.stamp("a"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        assertNull(reservationCache.get("a"));
+        assertEquals(1, reservationCache.getEvictions());
+        assertEquals(0, reservationCache.size());
+
+    }
+
+    @Test
+    public void testWriteIsCachedThrough() {
+
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), reservationCache.stamp("a"));
+
+        reservationCache.beginWrite("a");
+
+        assertNull(reservationCache.get("a"));
+
+        reservationCache.completeWrite("a", reservation("a", ReservationStatus.CANCELLED));
+
+        assertEquals(ReservationStatus.CANCELLED, reservationCache.get("a").getReservationStatus());
+
+    }
+
+    @Test
+    public void testLookupRacingWithWriteIsNotCached() {
+
+        // Read before the write committed, so it may hold the previous state
+        long stamp = reservationCache.stamp("a");
+
+        reservationCache.beginWrite("a");
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), stamp);
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), reservationCache.stamp("a"));
+
+        assertNull(reservationCache.get("a"));
+
+        reservationCache.completeWrite("a", null);
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), stamp);
+
+        assertNull(reservationCache.get("a"));
+
+    }
+
+    @Test
+    public void testOverlappingWritesAreNotCached() {
+
+        reservationCache.beginWrite("a");
+        reservationCache.beginWrite("a");
+        reservationCache.completeWrite("a", reservation("a", ReservationStatus.CANCELLED));
+        reservationCache.completeWrite("a", reservation("a", ReservationStatus.ACTIVE));
+
+        assertNull(reservationCache.get("a"));
+
+        reservationCache.beginWrite("a");
+        reservationCache.completeWrite("a", reservation("a", ReservationStatus.CANCELLED));
+
+        assertEquals(ReservationStatus.CANCELLED, reservationCache.get("a").getReservationStatus());
+
+    }
+
+    @Test
+    public void testWriteToAnotherTokenDoesNotStopCaching() {
+
+        long stamp = reservationCache.stamp("a");
+
+        reservationCache.beginWrite("b");
+        reservationCache.completeWrite("b", reservation("b", ReservationStatus.CANCELLED));
+        reservationCache.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), stamp);
+
+        assertEquals(ReservationStatus.ACTIVE, reservationCache.get("a").getReservationStatus());
+
+    }
+
+    @Test
+    public void testDisabledCacheKeepsNothing() {
+
+        ReservationCache disabled = new ReservationCache(false, 2, TimeUnit.SECONDS.toNanos(10), now::get);
+
+        disabled.putIfUnchanged(reservation("a", ReservationStatus.ACTIVE), disabled.stamp("a"));
+        disabled.beginWrite("b");
+        disabled.completeWrite("b", reservation("b", ReservationStatus.CANCELLED));
+
+        assertNull(disabled.get("a"));
+        assertNull(disabled.get("b"));
+        assertEquals(0, disabled.size());
+        assertEquals(2, disabled.getMisses());
+
+    }
+
+    private static Reservation reservation(String token, ReservationStatus reservationStatus) {
+        Reservation reservation = new Reservation();
+        reservation.setToken(token);
+        reservation.setReservationStatus(reservationStatus);
+        return reservation;
+    }
+}
@@ -2,38 +2,89 @@ package com.upgrade.jurassicpark.service;
 
 import com.upgrade.jurassicpark.JurassicparkApplication;
 import com.upgrade.jurassicpark.exception.*;
+import com.upgrade.jurassicpark.model.BatchReservationResult;
 import com.upgrade.jurassicpark.model.Calendar;
 import com.upgrade.jurassicpark.model.Day;
 import com.upgrade.jurassicpark.model.Reservation;
+import com.upgrade.jurassicpark.model.ReservationPage;
 import com.upgrade.jurassicpark.model.ReservationStatus;
+import com.upgrade.jurassicpark.model.ReservationSummary;
+import com.upgrade.jurassicpark.repository.DayCapacityRepository;
+import com.upgrade.jurassicpark.repository.ReservationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.Before;
 import org.junit.Test;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
 
 @RunWith(SpringRunner.class)
 @DataJpaTest
-@ContextConfiguration(classes = {JurassicparkApplication.class, ReservationServiceImpl.class})
+@ContextConfiguration(classes = {JurassicparkApplication.class, ReservationServiceImpl.class, OccupancyIndex.class, DayCapacityLedger.class, ReservationCache.class, BookingMetrics.class, ReservationArchiver.class})
 public class ReservationServiceTest {
 
     @Autowired
     private ReservationServiceImpl reservationService;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private ReservationCache reservationCache;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private BookingMetrics bookingMetrics;
+
+    @Autowired
+    private DayCapacityLedger dayCapacityLedger;
+
+    @Autowired
+    private DayCapacityRepository dayCapacityRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReservationArchiver reservationArchiver;
+
+    @Autowired
+    private OccupancyIndex occupancyIndex;
+
     private Reservation reservation1;
     private Reservation reservation2;
     private Reservation reservation3;
@@ -63,6 +114,15 @@ public class ReservationServiceTest {
 
     }
 
+    protected static Reservation newReservation(LocalDate arrivalDate, LocalDate departureDate) {
+        Reservation reservation = new Reservation();
+        reservation.setName("Steven Guerrero");
+        reservation.setEmail("john6832@gmail.com");
+        reservation.setArrivalDate(arrivalDate.atStartOfDay());
+        reservation.setDepartureDate(departureDate.atStartOfDay());
+        return reservation;
+    }
+
     @Test
     public void testFindByToken() throws Exception {
         Reservation reservation1 = reservationService.save(this.reservation1);
@@ -88,7 +148,7 @@ public class ReservationServiceTest {
         Reservation reservation2 = reservationService.save(this.reservation2);
         Reservation reservation3 = reservationService.save(this.reservation3);
 
-        List<Reservation> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
+        List<ReservationSummary> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
 
         assertEquals(3, reservations.size());
         assertEquals(reservation1.getToken(), reservations.get(0).getToken());
@@ -108,7 +168,7 @@ public class ReservationServiceTest {
         reservationService.cancelReservation(reservation2);
         reservationService.cancelReservation(reservation3);
 
-        List<Reservation> reservations = reservationService.findAllReservationsCancelled("john6832@gmail.com");
+        List<ReservationSummary> reservations = reservationService.findAllReservationsCancelled("john6832@gmail.com");
 
         assertEquals(3, reservations.size());
         assertEquals(reservation1.getToken(), reservations.get(0).getToken());
@@ -117,6 +177,124 @@ public class ReservationServiceTest {
 
     }
 
+    @Test
+    public void testFindWithoutJoinsOrManagedEntities() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+        reservationService.save(this.reservation2);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // Straight to the repository, the token cache may already hold the reservation
+        assertEquals(ReservationStatus.ACTIVE, reservationRepository.findByToken(reservation1.getToken()).getReservationStatus());
+        assertEquals(1L, statistics.getPrepareStatementCount());
+
+        statistics.clear();
+
+        assertEquals(2, reservationService.findAllReservationsActive("john6832@gmail.com").size());
+        assertEquals(1L, statistics.getPrepareStatementCount());
+        assertEquals(0L, statistics.getEntityLoadCount());
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testFindByTokenIsCachedWithoutServingStaleStatus() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        assertEquals(ReservationStatus.ACTIVE, reservationService.findByToken(reservation1.getToken()).getReservationStatus());
+
+        reservationService.cancelReservation(reservationService.findByToken(reservation1.getToken()));
+
+        assertEquals(ReservationStatus.CANCELLED, reservationService.findByToken(reservation1.getToken()).getReservationStatus());
+
+        // Only cancelling reached the database, reading the row it locks, every lookup was answered by the cache.
+        // Except in the database mode, where another instance may have changed the reservation
+
+        long lookups = ReflectionTestUtils.getField(reservationService, "bookingMode") == BookingMode.DATABASE ? 3L : 0L;
+
+        assertEquals(1L + lookups, statistics.getQueryExecutionCount());
+        assertEquals(3L - lookups, reservationCache.getHits());
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testSequencedBatchFailingMidwayRetriesEveryBookingOnItsOwn() throws Exception {
+
+        // Days no other test books, committed bookings of earlier tests may still be around
+        LocalDate arrival = LocalDate.now().plusDays(24);
+
+        Reservation broken = newReservation(arrival, arrival.plusDays(1));
+        broken.setName(String.join("", Collections.nCopies(60, "x")));
+
+        // The name does not fit its column, so the batch transaction fails after the first booking got an id
+        List<BookingSequencer.PendingBooking> batch = Stream.of(newReservation(arrival, arrival.plusDays(1)), broken, newReservation(arrival, arrival.plusDays(1)))
+                .map(reservation -> new BookingSequencer.PendingBooking(reservation, arrival, arrival.plusDays(1)))
+                .collect(Collectors.toList());
+
+        ReflectionTestUtils.invokeMethod(reservationService, "commit", batch);
+
+        for (BookingSequencer.PendingBooking booking : Arrays.asList(batch.get(0), batch.get(2))) {
+            Reservation savedReservation = booking.getFuture().get(1, TimeUnit.SECONDS);
+
+            assertSame(booking.getReservation(), savedReservation);
+            assertEquals(savedReservation.getId(), reservationRepository.findByToken(savedReservation.getToken()).getId());
+        }
+
+        assertTrue(batch.get(1).getFuture().isCompletedExceptionally());
+        assertEquals(2, dayCapacityRepository.bookedPerDay(arrival, arrival)[0]);
+        assertEquals(Long.valueOf(2), reservationService.getReservationCalendar(arrival.atStartOfDay(), arrival.atStartOfDay()).getDays().get(0).getReservationsMade());
+
+    }
+
+    @Test
+    public void testFindReservationsPage() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+        Reservation reservation2 = reservationService.save(this.reservation2);
+        Reservation reservation3 = reservationService.save(this.reservation3);
+
+        ReservationPage page = reservationService.findReservationsPage("john6832@gmail.com", ReservationStatus.ACTIVE, null, 2);
+
+        assertEquals(2, page.getReservations().size());
+        assertEquals(reservation1.getToken(), page.getReservations().get(0).getToken());
+        assertEquals(reservation2.getToken(), page.getReservations().get(1).getToken());
+        assertNotNull(page.getNext());
+
+        page = reservationService.findReservationsPage("john6832@gmail.com", ReservationStatus.ACTIVE, page.getNext(), 2);
+
+        assertEquals(1, page.getReservations().size());
+        assertEquals(reservation3.getToken(), page.getReservations().get(0).getToken());
+        assertNull(page.getNext());
+
+    }
+
+    @Test
+    public void testForEachReservation() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+        Reservation reservation2 = reservationService.save(this.reservation2);
+        reservationService.cancelReservation(reservationService.save(this.reservation3));
+
+        List<String> tokens = new ArrayList<>();
+
+        reservationService.forEachReservation("john6832@gmail.com", ReservationStatus.ACTIVE, reservation -> tokens.add(reservation.getToken()));
+
+        assertEquals(Arrays.asList(reservation1.getToken(), reservation2.getToken()), tokens);
+
+    }
+
     @Test
     public void testFindAllWithInvalidEmail() throws Exception {
 
@@ -124,7 +302,7 @@ public class ReservationServiceTest {
         reservationService.save(this.reservation2);
         reservationService.save(this.reservation3);
 
-        List<Reservation> reservations = reservationService.findAllReservationsActive("john6832@heroku.com");
+        List<ReservationSummary> reservations = reservationService.findAllReservationsActive("john6832@heroku.com");
 
         assertEquals(0, reservations.size());
 
@@ -135,7 +313,7 @@ public class ReservationServiceTest {
 
         Reservation reservation = reservationService.save(this.reservation1);
 
-        List<Reservation> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
+        List<ReservationSummary> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
 
         assertEquals(1, reservations.size());
         assertEquals(reservation.getToken(), reservations.get(0).getToken());
@@ -183,6 +361,38 @@ public class ReservationServiceTest {
 
     }
 
+    @Test
+    public void testSaveRecordsPhasesAndRejections() throws Exception {
+
+        MeterRegistry meterRegistry = bookingMetrics.getMeterRegistry();
+        Timer total = meterRegistry.get(BookingMetrics.PHASE_TIMER).tag("phase", "total").timer();
+        Timer capacityCheck = meterRegistry.get(BookingMetrics.PHASE_TIMER).tag("phase", "capacity-check").timer();
+        Timer insert = meterRegistry.get(BookingMetrics.PHASE_TIMER).tag("phase", "insert").timer();
+
+        long totalCount = total.count();
+        long capacityCheckCount = capacityCheck.count();
+        long insertCount = insert.count();
+
+        reservationService.save(this.reservation1);
+
+        reservation2.setArrivalDate(LocalDateTime.now().plusMonths(2));
+        reservation2.setDepartureDate(LocalDateTime.now().plusMonths(2).plusDays(2));
+
+        try {
+            reservationService.save(this.reservation2);
+            fail("Booking too soon was accepted");
+        } catch (BookingTooSoonException e) {
+            // Counted below
+        }
+
+        assertEquals(totalCount + 2, total.count());
+        assertEquals(capacityCheckCount + 1, capacityCheck.count());
+        assertEquals(insertCount + 1, insert.count());
+        assertTrue(meterRegistry.get(BookingMetrics.REJECTION_COUNTER).tag("exception", "BookingTooSoonException").counter().count() >= 1);
+        assertEquals(0, meterRegistry.get(BookingMetrics.WAITING_GAUGE).gauge().value(), 0);
+
+    }
+
 
 
     @Test
@@ -205,6 +415,262 @@ public class ReservationServiceTest {
 
     }
 
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testGetReservationCalendarAfterCancel() throws Exception {
+
+        // Cancelled days are given back once the cancellation commits, on days no other test books
+        LocalDate arrival = LocalDate.now().plusDays(22);
+
+        Reservation reservation1 = reservationService.save(newReservation(arrival, arrival.plusDays(2)));
+        reservationService.save(newReservation(arrival, arrival.plusDays(2)));
+
+        reservationService.cancelReservation(reservation1);
+
+        Calendar calendar = reservationService.getReservationCalendar(arrival.minusDays(1).atStartOfDay(), arrival.plusDays(2).atStartOfDay());
+
+        assertEquals(1L, (long) calendar.getDays().get(1).getReservationsMade());
+        assertEquals(29, (long) calendar.getDays().get(1).getAvailableSpots());
+        assertEquals(0L, (long) calendar.getDays().get(0).getReservationsMade());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testGetReservationCalendarUsesConstantQueries() throws Exception {
+
+        reservationService.save(this.reservation1);
+        reservationService.save(this.reservation2);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        for (int days : new int[]{90, 365}) {
+            LocalDateTime startDate = LocalDate.now().minusDays(days).atStartOfDay();
+            LocalDateTime endDate = LocalDate.now().plusDays(days).atStartOfDay();
+
+            statistics.clear();
+
+            Calendar calendar = reservationService.getReservationCalendar(startDate, endDate);
+
+            assertEquals(1L, statistics.getQueryExecutionCount());
+            assertEquals(2L * days + 1, calendar.getDays().size());
+            assertEquals(2L, (long) calendar.getDays().get(days + 4).getReservationsMade());
+            assertEquals(0L, (long) calendar.getDays().get(days + 3).getReservationsMade());
+        }
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testGetReservationCalendarIsCachedUntilInventoryChanges() throws Exception {
+
+        LocalDateTime startDate = LocalDate.now().atStartOfDay();
+        LocalDateTime endDate = LocalDate.now().plusDays(9).atStartOfDay();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        Calendar calendar = reservationService.getReservationCalendar(startDate, endDate);
+        long version = reservationService.getInventoryVersion(startDate, endDate);
+
+        statistics.clear();
+
+        assertSame(calendar, reservationService.getReservationCalendar(startDate, endDate));
+        assertEquals(0L, statistics.getQueryExecutionCount());
+
+        reservationService.save(this.reservation1);
+
+        assertNotEquals(version, reservationService.getInventoryVersion(startDate, endDate));
+
+        Calendar updatedCalendar = reservationService.getReservationCalendar(startDate, endDate);
+
+        assertNotSame(calendar, updatedCalendar);
+        assertEquals(1L, (long) updatedCalendar.getDays().get(4).getReservationsMade());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testInventoryVersionOnlyChangesWithItsRange() throws Exception {
+
+        LocalDateTime startDate = LocalDate.now().atStartOfDay();
+        LocalDateTime endDate = LocalDate.now().plusDays(3).atStartOfDay();
+
+        long version = reservationService.getInventoryVersion(startDate, endDate);
+
+        reservationService.save(this.reservation1);
+
+        assertEquals(version, reservationService.getInventoryVersion(startDate, endDate));
+        assertNotEquals(version, reservationService.getInventoryVersion(startDate, endDate.plusDays(1)));
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testDayCapacityFollowsBookingsUpdatesAndCancellations() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+        Reservation reservation2 = reservationService.save(this.reservation2);
+        reservationService.saveAll(Arrays.asList(this.reservation3));
+
+        reservation1.setArrivalDate(LocalDate.now().plusDays(5).atStartOfDay());
+        reservation1.setDepartureDate(LocalDate.now().plusDays(7).atStartOfDay());
+        reservationService.modify(reservation1);
+
+        reservationService.cancelReservation(reservation2);
+
+        LocalDate from = LocalDate.now();
+        LocalDate to = from.plusDays(9);
+
+        assertArrayEquals(reservationRepository.countActiveReservationsPerDay(from, to), dayCapacityRepository.bookedPerDay(from, to));
+        assertEquals(2, dayCapacityRepository.bookedPerDay(from, to)[5]);
+        assertEquals(1, dayCapacityRepository.bookedPerDay(from, to)[7]);
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testModifyOnlyChecksAddedDays() throws Exception {
+
+        // The day the stay loses is given back once the change commits, on days no other test books
+        LocalDate arrival = LocalDate.now().plusDays(22);
+
+        Reservation reservation1 = reservationService.save(newReservation(arrival, arrival.plusDays(2)));
+
+        for (int i = 0; i < 29; i++) {
+            reservationService.save(newReservation(arrival, arrival.plusDays(2)));
+        }
+
+        // The second and third days are full, but the reservation already holds them
+
+        Reservation modification = newReservation(arrival.plusDays(1), arrival.plusDays(3));
+        modification.setId(reservation1.getId());
+        modification.setToken(reservation1.getToken());
+
+        reservationService.modify(modification);
+
+        Calendar calendar = reservationService.getReservationCalendar(arrival.atStartOfDay(), arrival.plusDays(3).atStartOfDay());
+
+        assertEquals(29L, (long) calendar.getDays().get(0).getReservationsMade());
+        assertEquals(30L, (long) calendar.getDays().get(1).getReservationsMade());
+        assertEquals(30L, (long) calendar.getDays().get(2).getReservationsMade());
+        assertEquals(1L, (long) calendar.getDays().get(3).getReservationsMade());
+        assertEquals(arrival.plusDays(1).atStartOfDay(), reservationService.findByToken(reservation1.getToken()).getArrivalDate());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testSaveRejectsExistingReservation() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+
+        try {
+            reservationService.save(reservation1);
+            fail("An existing reservation was booked again");
+        } catch (IllegalArgumentException e) {
+            // Changed with modify, which never counts the stay against itself
+        }
+
+        Calendar calendar = reservationService.getReservationCalendar(LocalDate.now().atStartOfDay(), LocalDate.now().plusDays(7).atStartOfDay());
+
+        assertEquals(1L, (long) calendar.getDays().get(4).getReservationsMade());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testModifyKeepsRemovedDaysUntilCommitted() throws Exception {
+
+        // The database mode reads the uncommitted counts of this transaction back from day_capacity
+        assumeFalse(ReflectionTestUtils.getField(reservationService, "bookingMode") == BookingMode.DATABASE);
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+
+        Reservation modification = newReservation(LocalDate.now().plusDays(5), LocalDate.now().plusDays(7));
+        modification.setId(reservation1.getId());
+        modification.setToken(reservation1.getToken());
+
+        reservationService.modify(modification);
+
+        // Still uncommitted, a rollback would keep the reservation on the day it is leaving
+        Calendar calendar = reservationService.getReservationCalendar(LocalDate.now().atStartOfDay(), LocalDate.now().plusDays(7).atStartOfDay());
+
+        assertEquals(1L, (long) calendar.getDays().get(4).getReservationsMade());
+        assertEquals(1L, (long) calendar.getDays().get(7).getReservationsMade());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testModifyWithAddedDayFull() throws Exception {
+
+        Reservation reservation1 = reservationService.save(this.reservation1);
+
+        for (int i = 0; i < 30; i++) {
+            reservationService.save(newReservation(LocalDate.now().plusDays(7), LocalDate.now().plusDays(7)));
+        }
+
+        Reservation modification = newReservation(LocalDate.now().plusDays(5), LocalDate.now().plusDays(7));
+        modification.setId(reservation1.getId());
+        modification.setToken(reservation1.getToken());
+
+        try {
+            reservationService.modify(modification);
+            fail("Modification onto a full day was accepted");
+        } catch (MaxReservationsPerDayExceededException e) {
+            assertEquals(new MaxReservationsPerDayExceededException(Arrays.asList(LocalDate.now().plusDays(7))).getMessage(), e.getMessage());
+        }
+
+        Calendar calendar = reservationService.getReservationCalendar(LocalDate.now().atStartOfDay(), LocalDate.now().plusDays(7).atStartOfDay());
+
+        assertEquals(1L, (long) calendar.getDays().get(4).getReservationsMade());
+        assertEquals(1L, (long) calendar.getDays().get(6).getReservationsMade());
+        assertEquals(30L, (long) calendar.getDays().get(7).getReservationsMade());
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testReconcileCorrectsDriftedDays() throws Exception {
+
+        reservationService.save(this.reservation1);
+
+        LocalDate from = LocalDate.now();
+        LocalDate to = from.plusDays(9);
+
+        // Drifted as if a write had bypassed the ledger
+        jdbcTemplate.update("update day_capacity set booked = 7 where day = ?", from.plusDays(5));
+
+        assertEquals(Arrays.asList(from.plusDays(5)), dayCapacityLedger.reconcile(from, to));
+        assertArrayEquals(reservationRepository.countActiveReservationsPerDay(from, to), dayCapacityRepository.bookedPerDay(from, to));
+        assertEquals(Arrays.asList(), dayCapacityLedger.reconcile(from, to));
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testRefreshKeepsLocalChangesInFlight() throws Exception {
+
+        LocalDate claimed = LocalDate.now().plusDays(25);
+        LocalDate bookedElsewhere = LocalDate.now().plusDays(26);
+
+        // Claimed in the test transaction, which the table does not show yet
+        occupancyIndex.add(claimed, claimed, 1);
+
+        // Booked by another instance sharing the table
+        jdbcTemplate.update("update day_capacity set booked = booked + 1 where day = ?", bookedElsewhere);
+
+        occupancyIndex.refresh();
+
+        assertEquals(1, occupancyIndex.reservationsOn(claimed));
+        assertEquals(1, occupancyIndex.reservationsOn(bookedElsewhere));
+
+    }
+
     @Test(expected = MaxReservationsPerDayExceededException.class)
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
     public void testSaveWithMaxReservationsPerDayExceeded() throws Exception {
@@ -223,6 +689,233 @@ public class ReservationServiceTest {
 
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testSaveAll() throws Exception {
+
+        for (int i = 0; i < 28; i++) {
+            reservation3 = new Reservation();
+            reservation3.setName("Steven Guerrero");
+            reservation3.setEmail("john6832@gmail.com");
+            reservation3.setArrivalDate(LocalDate.now().plusDays(4).atStartOfDay());
+            reservation3.setDepartureDate(LocalDate.now().plusDays(6).atStartOfDay());
+            reservationService.save(reservation3);
+        }
+
+        // Two spots left, the third reservation of the batch for the same days must be rejected
+
+        Reservation tooLate = new Reservation();
+        tooLate.setName("Steven Guerrero");
+        tooLate.setEmail("john6832@gmail.com");
+        tooLate.setArrivalDate(LocalDate.now().atStartOfDay());
+        tooLate.setDepartureDate(LocalDate.now().plusDays(1).atStartOfDay());
+
+        List<BatchReservationResult> results = reservationService.saveAll(Arrays.asList(reservation1, tooLate, reservation2, reservation3));
+
+        assertEquals(4, results.size());
+        assertEquals(reservation1.getToken(), results.get(0).getToken());
+        assertNull(results.get(1).getToken());
+        assertEquals(new BookingTooLateException().getMessage(), results.get(1).getError().getMessage());
+        assertEquals(reservation2.getToken(), results.get(2).getToken());
+        assertNull(results.get(3).getToken());
+        assertNotNull(results.get(3).getError());
+
+        assertEquals(30, reservationService.findAllReservationsActive("john6832@gmail.com").size());
+        assertEquals(reservation1.getEmail(), reservationService.findByToken(results.get(0).getToken()).getEmail());
+        assertEquals(30L, (long) reservationService.getReservationCalendar(
+                LocalDate.now().plusDays(4).atStartOfDay(), LocalDate.now().plusDays(4).atStartOfDay()).getDays().get(0).getReservationsMade());
+
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    public void testSaveAllBatchesInserts() throws Exception {
+
+        List<Reservation> reservations = new ArrayList<>();
+
+        for (int i = 0; i < 30; i++) {
+            reservation3 = new Reservation();
+            reservation3.setName("Steven Guerrero");
+            reservation3.setEmail("john6832@gmail.com");
+            reservation3.setArrivalDate(LocalDate.now().plusDays(4).atStartOfDay());
+            reservation3.setDepartureDate(LocalDate.now().plusDays(6).atStartOfDay());
+            reservations.add(reservation3);
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        reservationService.saveAll(reservations);
+
+        statistics.clear();
+        entityManager.flush();
+
+        // Ids were already drawn from the sequence, so the 30 inserts go out as a single JDBC batch
+
+        assertEquals(30L, statistics.getEntityInsertCount());
+        assertEquals(1L, statistics.getPrepareStatementCount());
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testArchiveMovesEndedAndCancelledReservations() throws Exception {
+
+        Reservation upcoming = reservationService.save(this.reservation1);
+        Reservation cancelled = reservationService.save(this.reservation2);
+        reservationService.cancelReservation(cancelled);
+
+        // Booked before today, straight to the repository as it could no longer be booked
+        Reservation ended = newReservation(LocalDate.now().minusDays(3), LocalDate.now().minusDays(1));
+        ended.setToken("1d8a3f5e-6c2b-4e8f-9a7d-3b5c1e2f4a6d");
+        ended.setReservationStatus(ReservationStatus.ACTIVE);
+        ended = reservationRepository.save(ended);
+
+        assertEquals(2, reservationArchiver.archive(LocalDate.now()));
+
+        assertEquals(Arrays.asList(upcoming.getId()), reservationRepository.findAll().stream().map(Reservation::getId).collect(Collectors.toList()));
+        assertNull(reservationService.findByToken(cancelled.getToken()));
+
+        assertEquals(1, reservationService.findAllReservationsActive("john6832@gmail.com").size());
+        assertTrue(reservationService.findAllReservationsCancelled("john6832@gmail.com").isEmpty());
+        assertEquals(ended.getToken(), reservationService.findAllReservationsArchived("john6832@gmail.com", ReservationStatus.ACTIVE).get(0).getToken());
+        assertEquals(cancelled.getToken(), reservationService.findAllReservationsArchived("john6832@gmail.com", ReservationStatus.CANCELLED).get(0).getToken());
+
+        // Nothing left to archive, and the upcoming stay still holds its days
+        assertEquals(0, reservationArchiver.archive(LocalDate.now()));
+        assertEquals(Long.valueOf(1), reservationService.getReservationCalendar(this.reservation1.getArrivalDate(), this.reservation1.getArrivalDate()).getDays().get(0).getReservationsMade());
+
+    }
+
+    @Test(expected = ReservationNotFoundException.class)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testArchivedReservationIsNeitherCancelledNorModifiedAgain() throws Exception {
+
+        Reservation reservation = reservationService.save(this.reservation1);
+        Reservation lookedUp = reservationService.findByToken(reservation.getToken());
+        reservationService.cancelReservation(reservationService.findByToken(reservation.getToken()));
+
+        reservationArchiver.archive(LocalDate.now());
+
+        // Cancelling again a copy looked up before it was archived must not bring the row back
+        reservationService.cancelReservation(lookedUp);
+        assertTrue(reservationRepository.findAll().isEmpty());
+
+        reservationService.modify(lookedUp);
+
+    }
+
+    @Test
+    public void testFindAvailableStaysSkipsFullDays() throws Exception {
+
+        // Days no other test books, filled up to the maximum
+        LocalDate today = LocalDate.now();
+
+        for (int i = 0; i < 30; i++) {
+            reservationService.save(newReservation(today.plusDays(24), today.plusDays(25)));
+        }
+
+        // Arrivals up to 27 days ahead are bookable whatever the length of the month
+        List<LocalDate> arrivals = reservationService.findAvailableStays(today.plusDays(22), today.plusDays(27), 1, 1, Integer.MAX_VALUE).stream()
+                .map(stay -> stay.getArrivalDate().toLocalDate())
+                .collect(Collectors.toList());
+
+        assertEquals(Arrays.asList(today.plusDays(22), today.plusDays(26), today.plusDays(27)), arrivals);
+        assertEquals(today.plusDays(23).atStartOfDay(), reservationService.findAvailableStays(today.plusDays(22), today.plusDays(27), 1, 1, 1).get(0).getDepartureDate());
+        assertTrue(reservationService.findAvailableStays(today.plusDays(22), today.plusDays(27), 1, 31, Integer.MAX_VALUE).isEmpty());
+
+        try {
+            reservationService.save(newReservation(today.plusDays(24), today.plusDays(25)));
+            fail("The days are full");
+        } catch (MaxReservationsPerDayExceededException e) {
+            // The two stays two days away, the third one depends on what earlier tests left booked
+            assertEquals(3, e.getAlternatives().size());
+            assertEquals(Arrays.asList(today.plusDays(22), today.plusDays(26)), e.getAlternatives().subList(0, 2).stream()
+                    .map(stay -> stay.getArrivalDate().toLocalDate())
+                    .collect(Collectors.toList()));
+        }
+
+        try {
+            reservationService.saveAsync(newReservation(today.plusDays(24), today.plusDays(25))).get();
+            fail("The days are full");
+        } catch (ExecutionException e) {
+            assertEquals(3, ((MaxReservationsPerDayExceededException) e.getCause()).getAlternatives().size());
+        }
+
+    }
+
+    @Test(expected = MaxDaysExceededException.class)
+    public void testFindAvailableStaysLongerThanAllowed() throws Exception {
+
+        reservationService.findAvailableStays(LocalDate.MIN, LocalDate.MAX, 3, 1, 1);
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testHoldTakesItsDaysUntilConfirmed() throws Exception {
+
+        // Days no other test books, committed bookings of earlier tests may still be around
+        LocalDate arrival = LocalDate.now().plusDays(20);
+        Reservation held = reservationService.hold(newReservation(arrival, arrival.plusDays(1)));
+
+        assertEquals(ReservationStatus.HELD, reservationRepository.findByToken(held.getToken()).getReservationStatus());
+        assertTrue(held.getHeldUntil().isAfter(LocalDateTime.now()));
+
+        // The days are taken, but the hold is not a reservation of the guest yet
+        assertEquals(Long.valueOf(1), reservationService.getReservationCalendar(arrival.atStartOfDay(), arrival.atStartOfDay()).getDays().get(0).getReservationsMade());
+        assertEquals(1, dayCapacityRepository.bookedPerDay(arrival, arrival)[0]);
+        assertTrue(reservationService.findAllReservationsActive("john6832@gmail.com").stream().noneMatch(summary -> summary.getToken().equals(held.getToken())));
+        assertTrue(dayCapacityLedger.reconcile(arrival, arrival.plusDays(1)).isEmpty());
+
+        Reservation confirmed = reservationService.confirmHold(held.getToken());
+
+        assertEquals(held.getToken(), confirmed.getToken());
+        assertEquals(ReservationStatus.ACTIVE, reservationRepository.findByToken(held.getToken()).getReservationStatus());
+        assertNull(reservationRepository.findByToken(held.getToken()).getHeldUntil());
+        assertTrue(reservationService.findAllReservationsActive("john6832@gmail.com").stream().anyMatch(summary -> summary.getToken().equals(held.getToken())));
+
+        // Confirming again changes nothing, the days were only taken once
+        reservationService.confirmHold(held.getToken());
+
+        assertEquals(Long.valueOf(1), reservationService.getReservationCalendar(arrival.atStartOfDay(), arrival.atStartOfDay()).getDays().get(0).getReservationsMade());
+        assertEquals(1, dayCapacityRepository.bookedPerDay(arrival, arrival)[0]);
+
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void testExpiredHoldGivesItsDaysBack() throws Exception {
+
+        ReflectionTestUtils.setField(reservationService, "holdTtlSeconds", 0L);
+
+        // Days no other test books, committed bookings of earlier tests may still be around
+        LocalDate arrival = LocalDate.now().plusDays(20);
+        Reservation held = reservationService.hold(newReservation(arrival, arrival.plusDays(1)));
+
+        // Due right away, the wheel expires it on its next tick
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (reservationRepository.findByToken(held.getToken()) != null && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertNull(reservationRepository.findByToken(held.getToken()));
+        assertEquals(Long.valueOf(0), reservationService.getReservationCalendar(arrival.atStartOfDay(), arrival.atStartOfDay()).getDays().get(0).getReservationsMade());
+        assertEquals(0, dayCapacityRepository.bookedPerDay(arrival, arrival)[0]);
+
+        try {
+            reservationService.confirmHold(held.getToken());
+            fail("An expired hold cannot be confirmed");
+        } catch (HoldExpiredException e) {
+            // expected
+        }
+
+    }
+
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
     public void testConcurrentSaveWithMaxReservationsPerDayExceeded() {
@@ -252,7 +945,7 @@ public class ReservationServiceTest {
         }
 
 
-        List<Reservation> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
+        List<ReservationSummary> reservations = reservationService.findAllReservationsActive("john6832@gmail.com");
 
         assertEquals(30, reservations.size());
 
@@ -0,0 +1,13 @@
+package com.upgrade.jurassicpark.service;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the whole reservation service suite with bookings committed in batches by the sequencer thread. Those commits
+ * are not rolled back with the test transaction, so every test gets a fresh database.
+ */
+@TestPropertySource(properties = "jurassic-world.booking-mode=sequencer")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class SequencerReservationServiceTest extends ReservationServiceTest {
+}